@@ -0,0 +1,17 @@
+package synchronizers;
+
+import utils.TimerWheel;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// timeouts of the asynchronous requests of every synchronizer, created with the first one
+class AsyncTimeouts {
+
+    static final TimerWheel timerWheel = new TimerWheel(10, 512);
+    // timer tasks run on the ticker thread, completing a future there would run its dependents there too
+    static final Executor expirer = ForkJoinPool.commonPool();
+
+    private AsyncTimeouts() {
+    }
+}
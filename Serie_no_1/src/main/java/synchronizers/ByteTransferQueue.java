@@ -0,0 +1,382 @@
+package synchronizers;
+
+import utils.NodeLinkedList;
+import utils.Timeouts;
+import utils.Waiter;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// TransferQueue of byte payloads kept in a ring of direct memory, so that the payloads never get into the heap.
+// every record is a header followed by the payload, padded so that headers stay aligned. the header holds the
+// payload length, whether a transfer is waiting for the record and, once it has been read, that its space can be
+// reused. records are read outside monitor, so their space is only reused once they and every record before them
+// have been read. a record that doesn't fit before the end of the ring starts again at 0, after a wrap marker
+public class ByteTransferQueue {
+
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int WRAP = -1;
+    private static final int CONSUMED_BIT = Integer.MIN_VALUE;
+    private static final int TRANSFER_BIT = 1 << 30;
+    private static final int LENGTH_MASK = TRANSFER_BIT - 1;
+
+    private final ReentrantLock monitor = new ReentrantLock();
+    // producers waiting for room
+    private final Condition notFull = monitor.newCondition();
+    private final NodeLinkedList<Waiter> takeRequestQueue = new NodeLinkedList<>();
+    // transfers waiting for their record to be taken, in the order of their records
+    private final NodeLinkedList<Waiter> transferRequestQueue = new NodeLinkedList<>();
+    private final ByteBuffer ring;
+    private final int capacity;
+    // bytes ever written, taken and freed, the byte n is at n % capacity. freePosition <= takePosition <= putPosition
+    private long putPosition = 0;
+    private long takePosition = 0;
+    private long freePosition = 0;
+
+    public ByteTransferQueue(int capacity) {
+        if (capacity <= HEADER_SIZE || capacity > LENGTH_MASK) {
+            throw new IllegalArgumentException("capacity must fit a header and be smaller than 1GB");
+        }
+
+        this.capacity = align(capacity);
+        this.ring = ByteBuffer.allocateDirect(this.capacity);
+    }
+
+    // Non blocking, copies the remaining bytes of payload, throws IllegalStateException if there is no room
+    public void put(ByteBuffer payload) {
+        if (!offer(payload)) {
+            throw new IllegalStateException("queue is full");
+        }
+    }
+
+    // Non blocking, returns false if there is no room for the payload
+    public boolean offer(ByteBuffer payload) {
+        monitor.lock();
+
+        try {
+            return pushRecord(payload, false) >= 0;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // waits for room for the payload, returns false if there was none before the timeout
+    public boolean put(ByteBuffer payload, long timeout) throws InterruptedException {
+        monitor.lock();
+
+        try {
+            return pushRecord(payload, false, Timeouts.start(timeout)) >= 0;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // the timeout also covers waiting for room, if there is none the payload isn't enqueued.
+    // a payload that isn't taken before the timeout stays in the queue
+    public boolean transfer(ByteBuffer payload, long timeout) throws InterruptedException {
+        monitor.lock();
+
+        try {
+            long limit = Timeouts.start(timeout);
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                pushRecord(payload, false);
+                return false;
+            }
+
+            long position = pushRecord(payload, true, limit);
+            if (position < 0) {
+                return false;
+            }
+            Waiter transferRequest = Waiter.current();
+            transferRequestQueue.push(transferRequest.node());
+            long remaining = Timeouts.remaining(limit);
+
+            while (true) {
+
+                try {
+                    transferRequest.await(monitor, remaining);
+
+                } catch (InterruptedException e) {
+                    if (transferRequest.isDone()) {
+                        // couldn't give up because request was already fulfilled
+                        Thread.currentThread().interrupt();
+                        return true;
+                    }
+                    giveUp(transferRequest, position);
+                    throw e;
+                }
+
+                // check if the payload has been taken, if so the transfer was executed successfully
+                if (transferRequest.isDone()) {
+                    return true;
+                }
+
+                // check if timeout has ended
+                remaining = Timeouts.remaining(limit);
+                if (Timeouts.isTimeout(remaining)) {
+                    giveUp(transferRequest, position);
+                    return false;
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // copies the oldest payload to destination and returns its length, -1 if none arrived before the timeout.
+    // throws IllegalArgumentException, leaving the payload in the queue, if destination doesn't have room for it
+    public int take(ByteBuffer destination, int timeout) throws InterruptedException {
+        if (destination.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+
+        monitor.lock();
+
+        try {
+            if (!awaitRecord(timeout)) {
+                return -1;
+            }
+
+            int offset = recordOffset(takePosition);
+            int length = ring.getInt(offset) & LENGTH_MASK;
+            if (destination.remaining() < length) {
+                throw new IllegalArgumentException("payload of " + length + " bytes doesn't fit in destination");
+            }
+
+            // copied before the record is pulled, so that it stays in the queue if the copy fails
+            destination.put(ring.slice(offset + HEADER_SIZE, length));
+            pullRecord();
+            free(offset);
+            return length;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // hands the oldest payload to reader as a read only view of the ring, without copying it, returns false if
+    // none arrived before the timeout. reader runs without monitor held and the view is only valid until it returns
+    public boolean take(int timeout, Consumer<ByteBuffer> reader) throws InterruptedException {
+        int offset;
+        int length;
+
+        monitor.lock();
+
+        try {
+            if (!awaitRecord(timeout)) {
+                return false;
+            }
+
+            offset = recordOffset(takePosition);
+            length = ring.getInt(offset) & LENGTH_MASK;
+            pullRecord();
+        } finally {
+            monitor.unlock();
+        }
+
+        try {
+            // the record's space isn't reused until it's freed, so it can be read without monitor
+            reader.accept(ring.slice(offset + HEADER_SIZE, length).asReadOnlyBuffer());
+        } finally {
+            monitor.lock();
+
+            try {
+                free(offset);
+            } finally {
+                monitor.unlock();
+            }
+        }
+        return true;
+    }
+
+    // must be called with monitor held, returns the position of the record or -1 if there is no room
+    private long pushRecord(ByteBuffer payload, boolean isTransfer) {
+        int length = payload.remaining();
+        if (HEADER_SIZE + length > capacity) {
+            throw new IllegalArgumentException("payload doesn't fit in the queue");
+        }
+
+        // an empty ring starts over at 0, so that the record isn't kept out by a tail it would have to skip
+        int offset = recordOffset(putPosition);
+        if (freePosition == putPosition && offset != 0) {
+            putPosition += capacity - offset;
+            takePosition = putPosition;
+            freePosition = putPosition;
+            offset = 0;
+        }
+
+        int recordSize = align(HEADER_SIZE + length);
+        // the end of the ring is skipped if the record doesn't fit before it
+        int skipped = recordSize > capacity - offset ? capacity - offset : 0;
+        if (putPosition + skipped + recordSize - freePosition > capacity) {
+            return -1;
+        }
+
+        if (skipped > 0) {
+            ring.putInt(offset, WRAP);
+            putPosition += skipped;
+            offset = 0;
+        }
+
+        ring.put(offset + HEADER_SIZE, payload, payload.position(), length);
+        payload.position(payload.limit());
+        ring.putInt(offset, isTransfer ? length | TRANSFER_BIT : length);
+        long position = putPosition;
+        putPosition += recordSize;
+
+        // a take waiting for payloads shouldn't have to wait for its timeout to see this one
+        if (takeRequestQueue.isNotEmpty()) {
+            takeRequestQueue.pull().value.complete();
+        }
+        return position;
+    }
+
+    // must be called with monitor held, like pushRecord but waits for room until the limit
+    private long pushRecord(ByteBuffer payload, boolean isTransfer, long limit) throws InterruptedException {
+        long remaining = Timeouts.remaining(limit);
+
+        while (true) {
+            long position = pushRecord(payload, isTransfer);
+            if (position >= 0 || Timeouts.isTimeout(remaining)) {
+                return position;
+            }
+
+            try {
+                notFull.await(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // giving up, let someone else have the room we may have been signalled for
+                notFull.signal();
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+            remaining = Timeouts.remaining(limit);
+        }
+    }
+
+    // must be called with monitor held, waits until there is a record to take, returns false if none arrived
+    private boolean awaitRecord(int timeout) throws InterruptedException {
+
+        // easy path
+        if (skipWrap()) {
+            return true;
+        }
+
+        // check if it's supposed to wait
+        if (Timeouts.noWait(timeout)) {
+            return false;
+        }
+
+        Waiter takeRequest = Waiter.current();
+        takeRequestQueue.push(takeRequest.node());
+        // prepare wait
+        long limit = Timeouts.start(timeout);
+        long remaining = Timeouts.remaining(limit);
+
+        while (true) {
+
+            try {
+                takeRequest.await(monitor, remaining);
+
+            } catch (InterruptedException e) {
+                if (takeRequest.isDone() && skipWrap()) {
+                    // couldn't give up because request was already fulfilled
+                    Thread.currentThread().interrupt();
+                    return true;
+                }
+                // a fulfilled request was already pulled from the queue
+                if (!takeRequest.isDone()) {
+                    takeRequestQueue.remove(takeRequest.node());
+                }
+                throw e;
+            }
+
+            if (takeRequest.isDone()) {
+                if (skipWrap()) {
+                    return true;
+                }
+                // a take that didn't wait got to the record first, wait for the next one
+                takeRequest = Waiter.current();
+                takeRequestQueue.push(takeRequest.node());
+            }
+
+            // check if timeout has ended
+            remaining = Timeouts.remaining(limit);
+            if (Timeouts.isTimeout(remaining)) {
+                takeRequestQueue.remove(takeRequest.node());
+                return false;
+            }
+        }
+    }
+
+    // must be called with monitor held, moves takePosition past a wrap marker, returns whether there is a record
+    private boolean skipWrap() {
+        if (takePosition == putPosition) {
+            return false;
+        }
+
+        int offset = recordOffset(takePosition);
+        if (ring.getInt(offset) == WRAP) {
+            takePosition += capacity - offset;
+        }
+        return true;
+    }
+
+    // must be called with monitor held and a record at takePosition
+    private void pullRecord() {
+        int offset = recordOffset(takePosition);
+        int header = ring.getInt(offset);
+        takePosition += align(HEADER_SIZE + (header & LENGTH_MASK));
+
+        // transfers wait in the order of their records, so the record belongs to the first one
+        if ((header & TRANSFER_BIT) != 0) {
+            ring.putInt(offset, header & ~TRANSFER_BIT);
+            transferRequestQueue.pull().value.complete();
+        }
+    }
+
+    // must be called with monitor held, marks the record as read and reuses the space of every read record
+    // from the oldest one on
+    private void free(int offset) {
+        ring.putInt(offset, ring.getInt(offset) | CONSUMED_BIT);
+        long initialFreePosition = freePosition;
+
+        while (freePosition != takePosition) {
+            int freeOffset = recordOffset(freePosition);
+            int header = ring.getInt(freeOffset);
+
+            if (header == WRAP) {
+                freePosition += capacity - freeOffset;
+            } else if ((header & CONSUMED_BIT) != 0) {
+                freePosition += align(HEADER_SIZE + (header & LENGTH_MASK));
+            } else {
+                // still being read
+                break;
+            }
+        }
+
+        if (freePosition != initialFreePosition) {
+            notFull.signalAll();
+        }
+    }
+
+    // must be called with monitor held, the payload stays in the queue as if it had been put
+    private void giveUp(Waiter transferRequest, long position) {
+        transferRequestQueue.remove(transferRequest.node());
+        int offset = recordOffset(position);
+        ring.putInt(offset, ring.getInt(offset) & ~TRANSFER_BIT);
+    }
+
+    private int recordOffset(long position) {
+        return (int) (position % capacity);
+    }
+
+    // headers stay aligned to their size
+    private static int align(int size) {
+        return (size + HEADER_SIZE - 1) & -HEADER_SIZE;
+    }
+}
@@ -0,0 +1,136 @@
+package synchronizers;
+
+// Point in time view of a SimpleThreadPoolExecutor's metrics, durations are in nanoseconds.
+// queue depth counts the tasks waiting in the workQueue and in the workers' deques, but not the ones handed off
+// through the lock free queue. peak queue depth only counts the workQueue, the deques are never stopped to be
+// counted together with it
+public class ExecutorMetrics {
+
+    private final int queueDepth;
+    private final int peakQueueDepth;
+    private final int existingThreads;
+    private final int availableThreads;
+    private final long completedTasks;
+    private final long keepAliveExpirations;
+    private final long rejectedCount;
+    private final long blockedCount;
+    private final long callerRunsCount;
+    private final long droppedCount;
+    private final long meanQueueWait;
+    private final long p50QueueWait;
+    private final long p99QueueWait;
+    private final long maxQueueWait;
+    private final long meanExecutionTime;
+    private final long p50ExecutionTime;
+    private final long p99ExecutionTime;
+    private final long maxExecutionTime;
+
+    ExecutorMetrics(int queueDepth, int peakQueueDepth, int existingThreads, int availableThreads,
+                    long completedTasks, long keepAliveExpirations, long rejectedCount, long blockedCount,
+                    long callerRunsCount, long droppedCount, long meanQueueWait, long p50QueueWait,
+                    long p99QueueWait, long maxQueueWait, long meanExecutionTime, long p50ExecutionTime,
+                    long p99ExecutionTime, long maxExecutionTime) {
+        this.queueDepth = queueDepth;
+        this.peakQueueDepth = peakQueueDepth;
+        this.existingThreads = existingThreads;
+        this.availableThreads = availableThreads;
+        this.completedTasks = completedTasks;
+        this.keepAliveExpirations = keepAliveExpirations;
+        this.rejectedCount = rejectedCount;
+        this.blockedCount = blockedCount;
+        this.callerRunsCount = callerRunsCount;
+        this.droppedCount = droppedCount;
+        this.meanQueueWait = meanQueueWait;
+        this.p50QueueWait = p50QueueWait;
+        this.p99QueueWait = p99QueueWait;
+        this.maxQueueWait = maxQueueWait;
+        this.meanExecutionTime = meanExecutionTime;
+        this.p50ExecutionTime = p50ExecutionTime;
+        this.p99ExecutionTime = p99ExecutionTime;
+        this.maxExecutionTime = maxExecutionTime;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getPeakQueueDepth() {
+        return peakQueueDepth;
+    }
+
+    public int getExistingThreads() {
+        return existingThreads;
+    }
+
+    public int getAvailableThreads() {
+        return availableThreads;
+    }
+
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+
+    public long getKeepAliveExpirations() {
+        return keepAliveExpirations;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    public long getCallerRunsCount() {
+        return callerRunsCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getMeanQueueWait() {
+        return meanQueueWait;
+    }
+
+    public long getP50QueueWait() {
+        return p50QueueWait;
+    }
+
+    public long getP99QueueWait() {
+        return p99QueueWait;
+    }
+
+    public long getMaxQueueWait() {
+        return maxQueueWait;
+    }
+
+    public long getMeanExecutionTime() {
+        return meanExecutionTime;
+    }
+
+    public long getP50ExecutionTime() {
+        return p50ExecutionTime;
+    }
+
+    public long getP99ExecutionTime() {
+        return p99ExecutionTime;
+    }
+
+    public long getMaxExecutionTime() {
+        return maxExecutionTime;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorMetrics{queueDepth=" + queueDepth + ", peakQueueDepth=" + peakQueueDepth
+                + ", existingThreads=" + existingThreads + ", availableThreads=" + availableThreads
+                + ", completedTasks=" + completedTasks + ", keepAliveExpirations=" + keepAliveExpirations
+                + ", rejectedCount=" + rejectedCount + ", blockedCount=" + blockedCount
+                + ", callerRunsCount=" + callerRunsCount + ", droppedCount=" + droppedCount
+                + ", queueWait(mean/p50/p99/max)=" + meanQueueWait + "/" + p50QueueWait + "/" + p99QueueWait
+                + "/" + maxQueueWait + ", executionTime(mean/p50/p99/max)=" + meanExecutionTime + "/"
+                + p50ExecutionTime + "/" + p99ExecutionTime + "/" + maxExecutionTime + "}";
+    }
+}
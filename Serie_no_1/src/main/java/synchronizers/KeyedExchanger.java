@@ -1,68 +1,107 @@
 package synchronizers;
 
-import utils.NodeLinkedList;
+import utils.IntHashMap;
+import utils.TimerWheel;
 import utils.Timeouts;
+import utils.Waiter;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class KeyedExchanger<T> {
 
-    private static class Request {
-
-        private boolean isDone = false;
+    // an exchange that waits for its pair without a thread, only a timer and an entry in asyncRequests. like the
+    // requests of the C# server, whoever acquires it, a pair, its timeout or a cancel, is the only one that
+    // completes it, so the data of a pair can't be lost to a timeout that fires at the same time
+    private class AsyncRequest extends CompletableFuture<Optional<T>> {
+        private final AtomicBoolean isAcquired = new AtomicBoolean(false);
         private final int key;
-        private final Condition condition;
+        private final T data;
+        // guarded by monitor
+        private TimerWheel.Timer timer;
 
-        Request(int key, Lock monitor) {
+        AsyncRequest(int key, T data) {
             this.key = key;
-            condition = monitor.newCondition();
+            this.data = data;
         }
-    }
 
-    private static class Data<T> {
+        boolean tryAcquire() {
+            return isAcquired.compareAndSet(false, true);
+        }
 
-        private final int key;
-        private final T data;
+        // must be called with monitor held, a pair that lost the race for the request already removed it
+        void unlink() {
+            if (asyncRequests.get(key) == this) {
+                asyncRequests.remove(key);
+            }
+        }
 
-        Data(int key, T data) {
-            this.key = key;
-            this.data = data;
+        // completes empty if no pair acquired the request first
+        void expire() {
+            if (!tryAcquire()) {
+                return;
+            }
+
+            monitor.lock();
+
+            try {
+                unlink();
+            } finally {
+                monitor.unlock();
+            }
+
+            complete(Optional.empty());
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!tryAcquire()) {
+                // already fulfilled or about to be
+                return false;
+            }
+
+            monitor.lock();
+
+            try {
+                unlink();
+                timer.cancel();
+            } finally {
+                monitor.unlock();
+            }
+
+            return super.cancel(mayInterruptIfRunning);
         }
     }
 
-    private final Lock monitor = new ReentrantLock();
-    private final NodeLinkedList<Request> requestsList = new NodeLinkedList<>();
-    private final NodeLinkedList<Data<T>> dataQueue = new NodeLinkedList<>();
+    private final ReentrantLock monitor = new ReentrantLock();
+    // the thread waiting for its pair on each key, its waiter holds its data until the pair swaps it for its own.
+    // there is never more than one, the next one to arrive is its pair
+    private final IntHashMap<Waiter> requests = new IntHashMap<>();
+    // same for the exchanges waiting without a thread, a key is never in both at once
+    private final IntHashMap<AsyncRequest> asyncRequests = new IntHashMap<>();
+    // asynchronous requests fulfilled while monitor is held, completed once it's released
+    private List<Runnable> completions = new ArrayList<>();
 
     public Optional<T> exchange(int key, T myData, int timeout) throws InterruptedException {
         monitor.lock();
 
         try {
 
-            NodeLinkedList.Node<Request> dataRequest;
-
-            // check if pair thread already pushed my future data, if so
-            // complete pair thread's request, pull my future data from data queue and push my data
-            // for the pair thread
-            if (requestsList.isNotEmpty() && requestsList.contains(node -> node.key == key,
-                    requestsList.getHeadNode())) {
-                dataRequest = requestsList.searchNodeAndReturn(node -> node.key == key, null,
-                        requestsList.getHeadNode());
-                dataRequest.value.isDone = true;
-                // push my data
-                dataQueue.push(new Data<>(key, myData));
-                dataRequest.value.condition.signal();
-                NodeLinkedList.Node<Data<T>> dataToReturn = dataQueue.pullSpecificNodeAndReturn(tData -> tData.key == key,
-                        null, dataQueue.getHeadNode());
-                return Optional.of(dataToReturn.value.data);
+            // check if pair thread is already waiting, if so take its data and leave mine in its place
+            Waiter pairRequest = requests.remove(key);
+            if (pairRequest != null) {
+                return ObjectKeyedExchanger.swap(pairRequest, myData);
             }
 
-            // push my data
-            dataQueue.push(new Data<>(key, myData));
+            // same for a pair waiting asynchronously
+            AsyncRequest asyncPairRequest = acquireAsyncPair(key, myData);
+            if (asyncPairRequest != null) {
+                return Optional.of(asyncPairRequest.data);
+            }
 
             // check if it's supposed to wait
             if (Timeouts.noWait(timeout)) {
@@ -70,50 +109,82 @@ public class KeyedExchanger<T> {
             }
 
             // prepare wait
-            dataRequest = requestsList.push(new Request(key, monitor));
-            long start = Timeouts.start(timeout);
-            long remaining = Timeouts.remaining(start);
-
-            while (true) {
-
-                try {
-                    // if the thread got to this point it means that the pair thread didn't put the data in the map yet
-                    // so it's time to wait
-                    dataRequest.value.condition.await(remaining, TimeUnit.MILLISECONDS);
-
-                } catch (InterruptedException e) {
-                    // giving up
-                    if (dataRequest.value.isDone) {
-                        NodeLinkedList.Node<Data<T>> dataToReturn = dataQueue
-                                .pullSpecificNodeAndReturn(tData -> tData.key == key, null, dataQueue.getHeadNode());
-                        return Optional.of(dataToReturn.value.data);
-                    }
-                    requestsList.remove(dataRequest);
-                    Thread.currentThread().interrupt();
-                    throw e;
+            Waiter dataRequest = Waiter.current();
+            dataRequest.setItem(myData);
+            requests.put(key, dataRequest);
+
+            try {
+                return ObjectKeyedExchanger.awaitPair(monitor, dataRequest, timeout);
+            } finally {
+                if (!dataRequest.isDone()) {
+                    requests.remove(key);
                 }
+            }
+        } finally {
+            unlock();
+        }
+    }
 
-                if (dataRequest.value.isDone) {
-                    NodeLinkedList.Node<Data<T>> dataToReturn = dataQueue
-                            .pullSpecificNodeAndReturn(tData -> tData.key == key, null, dataQueue.getHeadNode());
-                    return Optional.of(dataToReturn.value.data);
-                }
+    // like exchange but without blocking a thread, the future completes empty if no pair arrives before the
+    // timeout. cancelling it gives up on the exchange
+    public CompletableFuture<Optional<T>> exchangeAsync(int key, T myData, int timeout) {
+        monitor.lock();
 
-                remaining = Timeouts.remaining(start);
-                if (Timeouts.isTimeout(remaining)) {
+        try {
 
-                    if (dataRequest.value.isDone) {
-                        NodeLinkedList.Node<Data<T>> dataToReturn = dataQueue
-                                .pullSpecificNodeAndReturn(tData -> tData.key == key, null, dataQueue.getHeadNode());
-                        return Optional.of(dataToReturn.value.data);
-                    }
+            // check if pair is already waiting, blocked or not
+            Waiter pairRequest = requests.remove(key);
+            if (pairRequest != null) {
+                return CompletableFuture.completedFuture(ObjectKeyedExchanger.swap(pairRequest, myData));
+            }
 
-                    requestsList.remove(dataRequest);
-                    return Optional.empty();
-                }
+            AsyncRequest asyncPairRequest = acquireAsyncPair(key, myData);
+            if (asyncPairRequest != null) {
+                return CompletableFuture.completedFuture(Optional.of(asyncPairRequest.data));
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                return CompletableFuture.completedFuture(Optional.empty());
             }
+
+            AsyncRequest dataRequest = new AsyncRequest(key, myData);
+            asyncRequests.put(key, dataRequest);
+            dataRequest.timer = AsyncTimeouts.timerWheel.schedule(
+                    () -> AsyncTimeouts.expirer.execute(dataRequest::expire), timeout);
+            return dataRequest;
         } finally {
+            unlock();
+        }
+    }
+
+    // must be called with monitor held, returns the request waiting asynchronously on key after handing it myData,
+    // null if there is none or its timeout or cancel got to it first
+    private AsyncRequest acquireAsyncPair(int key, T myData) {
+        AsyncRequest pairRequest = asyncRequests.remove(key);
+        if (pairRequest == null || !pairRequest.tryAcquire()) {
+            return null;
+        }
+
+        pairRequest.timer.cancel();
+        completions.add(() -> pairRequest.complete(Optional.of(myData)));
+        return pairRequest;
+    }
+
+    // releases monitor and then completes the asynchronous requests fulfilled while it was held, so that their
+    // dependents don't run under it. a nested release leaves them for the outermost one
+    private void unlock() {
+        if (completions.isEmpty() || monitor.getHoldCount() > 1) {
             monitor.unlock();
+            return;
+        }
+
+        List<Runnable> fulfilled = completions;
+        completions = new ArrayList<>();
+        monitor.unlock();
+
+        for (Runnable completion : fulfilled) {
+            completion.run();
         }
     }
 }
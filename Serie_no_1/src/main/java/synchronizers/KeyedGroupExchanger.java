@@ -0,0 +1,120 @@
+package synchronizers;
+
+import utils.IntHashMap;
+import utils.Timeouts;
+import utils.Waiter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+// KeyedExchanger for groups of parties threads instead of pairs. the threads that arrive on a key wait with their
+// data in their waiters, the last one to arrive applies combiner once to everyone's data, in the order they
+// arrived, and hands the result to all of them at once. a thread that times out or is interrupted takes its data
+// back out of the group, so the group waits for someone else in its place
+public class KeyedGroupExchanger<T, R> {
+
+    private final ReentrantLock monitor = new ReentrantLock();
+    // the threads waiting for their group to fill up on each key, in the order they arrived
+    private final IntHashMap<List<Waiter>> groups = new IntHashMap<>();
+    private final int parties;
+    private final Function<List<T>, R> combiner;
+
+    // combiner is applied with monitor held, to an unmodifiable list, and must not return null
+    public KeyedGroupExchanger(int parties, Function<List<T>, R> combiner) {
+        if (parties < 2) {
+            throw new IllegalArgumentException("a group needs at least 2 parties");
+        }
+
+        this.parties = parties;
+        this.combiner = Objects.requireNonNull(combiner);
+    }
+
+    // every thread of the group gets everyone's data, its own included
+    public static <T> KeyedGroupExchanger<T, List<T>> gathering(int parties) {
+        return new KeyedGroupExchanger<>(parties, Function.identity());
+    }
+
+    public Optional<R> exchange(int key, T myData, int timeout) throws InterruptedException {
+        monitor.lock();
+
+        try {
+            List<Waiter> group = groups.get(key);
+
+            // check if I'm the last one of the group, if so combine everyone's data and complete their requests
+            if (group != null && group.size() == parties - 1) {
+                List<T> data = new ArrayList<>(parties);
+                for (Waiter request : group) {
+                    data.add(request.getItem());
+                }
+                data.add(myData);
+
+                // if combiner throws the group stays as it was, waiting for its last party
+                R result = Objects.requireNonNull(combiner.apply(Collections.unmodifiableList(data)),
+                        "combiner returned null");
+                groups.remove(key);
+                for (Waiter request : group) {
+                    request.complete(result);
+                }
+                return Optional.of(result);
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                return Optional.empty();
+            }
+
+            // prepare wait
+            if (group == null) {
+                group = new ArrayList<>(parties - 1);
+                groups.put(key, group);
+            }
+            Waiter dataRequest = Waiter.current();
+            dataRequest.setItem(myData);
+            group.add(dataRequest);
+            long start = Timeouts.start(timeout);
+            long remaining = Timeouts.remaining(start);
+
+            while (true) {
+
+                try {
+                    dataRequest.await(monitor, remaining);
+
+                } catch (InterruptedException e) {
+                    // giving up
+                    if (dataRequest.isDone()) {
+                        // couldn't give up because request was already fulfilled
+                        Thread.currentThread().interrupt();
+                        return Optional.of(dataRequest.getItem());
+                    }
+                    leave(key, group, dataRequest);
+                    throw e;
+                }
+
+                if (dataRequest.isDone()) {
+                    return Optional.of(dataRequest.getItem());
+                }
+
+                remaining = Timeouts.remaining(start);
+                if (Timeouts.isTimeout(remaining)) {
+                    leave(key, group, dataRequest);
+                    return Optional.empty();
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // must be called with monitor held, takes the request and its data out of a group that isn't complete yet
+    private void leave(int key, List<Waiter> group, Waiter request) {
+        group.remove(request);
+        if (group.isEmpty()) {
+            groups.remove(key);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package synchronizers;
+
+import utils.Timeouts;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+// KeyedExchanger without a monitor, every key has its own slot in a ConcurrentHashMap where the first thread to
+// arrive leaves its data and parks. the second one swaps its own data into the waiting node with a single CAS
+// and unparks it, a waiter that times out retracts its node with a CAS on the same field, so exactly one of the
+// two wins. the map itself isn't lock free, putIfAbsent and remove take the lock of the key's bin and keys are
+// boxed, so threads on different keys only contend if their keys share a bin, and only for that short update
+public class LockFreeKeyedExchanger<T> {
+
+    private static final Object CANCELLED = new Object();
+
+    private static class Node<T> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Object> MATCH =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "match");
+
+        private final T data;
+        private final Thread waiter;
+        // the pair's data once matched, CANCELLED once retracted
+        private volatile Object match;
+
+        Node(T data, Thread waiter) {
+            this.data = data;
+            this.waiter = waiter;
+        }
+
+        boolean tryMatch(Object value) {
+            return MATCH.compareAndSet(this, null, value);
+        }
+    }
+
+    // the node waiting on each key, matching or retracting it never touches the map's bin locks, only
+    // publishing and clearing it does
+    private final ConcurrentHashMap<Integer, Node<T>> slots = new ConcurrentHashMap<>();
+
+    // myData can't be null, null is what an unmatched node holds
+    @SuppressWarnings("unchecked")
+    public Optional<T> exchange(int key, T myData, int timeout) throws InterruptedException {
+        Objects.requireNonNull(myData, "data to exchange can't be null");
+        Node<T> node = null;
+
+        while (true) {
+            Node<T> pair = slots.get(key);
+
+            if (pair != null) {
+                // whoever matches the node first owns it, the others help clear the slot and try again
+                boolean isMatched = pair.tryMatch(myData);
+                slots.remove(key, pair);
+                if (isMatched) {
+                    LockSupport.unpark(pair.waiter);
+                    return Optional.of(pair.data);
+                }
+                continue;
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                return Optional.empty();
+            }
+
+            if (node == null) {
+                node = new Node<>(myData, Thread.currentThread());
+            }
+            if (slots.putIfAbsent(key, node) == null) {
+                break;
+            }
+            // someone else got the slot first, it's our pair
+        }
+
+        long limit = Timeouts.start(timeout);
+
+        while (true) {
+            Object match = node.match;
+            if (match != null) {
+                return Optional.of((T) match);
+            }
+
+            long remaining = Timeouts.remaining(limit);
+            boolean isInterrupted = Thread.interrupted();
+            if (isInterrupted || Timeouts.isTimeout(remaining)) {
+                // retract the node, unless the pair already matched it
+                if (node.tryMatch(CANCELLED)) {
+                    slots.remove(key, node);
+                    if (isInterrupted) {
+                        throw new InterruptedException();
+                    }
+                    return Optional.empty();
+                }
+
+                // couldn't give up because the pair already swapped its data in
+                if (isInterrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return Optional.of((T) node.match);
+            }
+
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
+        }
+    }
+}
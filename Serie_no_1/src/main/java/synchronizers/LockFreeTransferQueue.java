@@ -0,0 +1,25 @@
+package synchronizers;
+
+import utils.LockFreeDualQueue;
+
+// TransferQueue without a lock, built on the Scherer and Scott dual queue extended so that producers can also
+// wait for a consumer. a take that finds a message, or a message that finds a waiting take, completes with a
+// single cas on the matched node followed by an unpark of whoever was waiting on it
+public class LockFreeTransferQueue<E> {
+
+    private final LockFreeDualQueue<E> queue = new LockFreeDualQueue<>();
+
+    // Non blocking
+    public void put(E message) {
+        queue.put(message);
+    }
+
+    // as with TransferQueue, a message that isn't taken before the timeout stays in the queue
+    public boolean transfer(E message, long timeout) throws InterruptedException {
+        return queue.putAndAwaitTake(message, timeout);
+    }
+
+    public E take(int timeout) throws InterruptedException {
+        return queue.take(timeout);
+    }
+}
@@ -0,0 +1,51 @@
+package synchronizers;
+
+import utils.LongHashMap;
+import utils.Timeouts;
+import utils.Waiter;
+
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+// KeyedExchanger that pairs on long keys, such as request ids, without boxing them. the waiting itself is
+// ObjectKeyedExchanger's
+public class LongKeyedExchanger<T> {
+
+    private final ReentrantLock monitor = new ReentrantLock();
+    // the thread waiting for its pair on each key, its waiter holds its data until the pair swaps it for its own.
+    // there is never more than one, the next one to arrive is its pair
+    private final LongHashMap<Waiter> requests = new LongHashMap<>();
+
+    public Optional<T> exchange(long key, T myData, int timeout) throws InterruptedException {
+        monitor.lock();
+
+        try {
+
+            // check if pair thread is already waiting, if so take its data and leave mine in its place
+            Waiter pairRequest = requests.remove(key);
+            if (pairRequest != null) {
+                return ObjectKeyedExchanger.swap(pairRequest, myData);
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                return Optional.empty();
+            }
+
+            // prepare wait
+            Waiter dataRequest = Waiter.current();
+            dataRequest.setItem(myData);
+            requests.put(key, dataRequest);
+
+            try {
+                return ObjectKeyedExchanger.awaitPair(monitor, dataRequest, timeout);
+            } finally {
+                if (!dataRequest.isDone()) {
+                    requests.remove(key);
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package synchronizers;
+
+import utils.NodeLinkedList;
+import utils.Timeouts;
+import utils.Waiter;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// TransferQueue of long values kept in a ring buffer, so that neither the values get boxed nor every message gets
+// a node. the ring doubles when it's full, besides that putting, taking and waiting allocate nothing.
+// messages are numbered as they are put, which tells a transfer exactly when its own message was taken
+public class LongTransferQueue {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private final ReentrantLock monitor = new ReentrantLock();
+    private final NodeLinkedList<Waiter> takeRequestQueue = new NodeLinkedList<>();
+    // transfers waiting for their message to be taken, in the order of their messages
+    private final NodeLinkedList<Waiter> transferRequestQueue = new NodeLinkedList<>();
+    private long[] messages;
+    // whether each message was sent by a transfer that is still waiting for it to be taken
+    private boolean[] isTransferred;
+    private int mask;
+    // number of messages ever taken and put, message n is at n & mask
+    private long takeIndex = 0;
+    private long putIndex = 0;
+
+    public LongTransferQueue() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public LongTransferQueue(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initial capacity must be positive");
+        }
+
+        int capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        messages = new long[capacity];
+        isTransferred = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    // Non blocking
+    public void put(long message) {
+        monitor.lock();
+
+        try {
+            pushMessage(message, false);
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // a message that isn't taken before the timeout stays in the queue
+    public boolean transfer(long message, long timeout) throws InterruptedException {
+        monitor.lock();
+
+        try {
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                pushMessage(message, false);
+                return false;
+            }
+
+            long index = pushMessage(message, true);
+            Waiter transferRequest = Waiter.current();
+            transferRequestQueue.push(transferRequest.node());
+
+            // prepare wait
+            long limit = Timeouts.start(timeout);
+            long remaining = Timeouts.remaining(limit);
+
+            while (true) {
+
+                try {
+                    transferRequest.await(monitor, remaining);
+
+                } catch (InterruptedException e) {
+                    if (transferRequest.isDone()) {
+                        // couldn't give up because request was already fulfilled
+                        Thread.currentThread().interrupt();
+                        return true;
+                    }
+                    giveUp(transferRequest, index);
+                    throw e;
+                }
+
+                // check if the message has been taken, if so the transfer was executed successfully
+                if (transferRequest.isDone()) {
+                    return true;
+                }
+
+                // check if timeout has ended
+                remaining = Timeouts.remaining(limit);
+                if (Timeouts.isTimeout(remaining)) {
+                    giveUp(transferRequest, index);
+                    return false;
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // throws TimeoutException, instead of returning null like TransferQueue, if no message arrives in time
+    public long take(int timeout) throws InterruptedException, TimeoutException {
+        monitor.lock();
+
+        try {
+
+            // easy path
+            if (takeIndex != putIndex) {
+                return pullMessage();
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                throw new TimeoutException();
+            }
+
+            Waiter takeRequest = Waiter.current();
+            takeRequestQueue.push(takeRequest.node());
+            // prepare wait
+            long limit = Timeouts.start(timeout);
+            long remaining = Timeouts.remaining(limit);
+
+            while (true) {
+
+                try {
+                    takeRequest.await(monitor, remaining);
+
+                } catch (InterruptedException e) {
+                    if (takeRequest.isDone() && takeIndex != putIndex) {
+                        // couldn't give up because request was already fulfilled
+                        Thread.currentThread().interrupt();
+                        return pullMessage();
+                    }
+                    // a fulfilled request was already pulled from the queue
+                    if (!takeRequest.isDone()) {
+                        takeRequestQueue.remove(takeRequest.node());
+                    }
+                    throw e;
+                }
+
+                if (takeRequest.isDone()) {
+                    if (takeIndex != putIndex) {
+                        return pullMessage();
+                    }
+                    // a take that didn't wait got to the message first, wait for the next one
+                    takeRequest = Waiter.current();
+                    takeRequestQueue.push(takeRequest.node());
+                }
+
+                // check if timeout has ended
+                remaining = Timeouts.remaining(limit);
+                if (Timeouts.isTimeout(remaining)) {
+                    takeRequestQueue.remove(takeRequest.node());
+                    throw new TimeoutException();
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    public int size() {
+        monitor.lock();
+
+        try {
+            return (int) (putIndex - takeIndex);
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // must be called with monitor held, returns the number of the message
+    private long pushMessage(long message, boolean isTransfer) {
+        if (putIndex - takeIndex == messages.length) {
+            grow();
+        }
+
+        int position = (int) (putIndex & mask);
+        messages[position] = message;
+        isTransferred[position] = isTransfer;
+
+        // a take waiting for messages shouldn't have to wait for its timeout to see this one
+        if (takeRequestQueue.isNotEmpty()) {
+            takeRequestQueue.pull().value.complete();
+        }
+        return putIndex++;
+    }
+
+    // must be called with monitor held and the queue not empty
+    private long pullMessage() {
+        int position = (int) (takeIndex++ & mask);
+
+        // transfers wait in the order of their messages, so the message belongs to the first one
+        if (isTransferred[position]) {
+            isTransferred[position] = false;
+            transferRequestQueue.pull().value.complete();
+        }
+        return messages[position];
+    }
+
+    // must be called with monitor held, the message stays in the queue as if it had been put
+    private void giveUp(Waiter transferRequest, long index) {
+        transferRequestQueue.remove(transferRequest.node());
+        isTransferred[(int) (index & mask)] = false;
+    }
+
+    // must be called with monitor held and the ring full
+    private void grow() {
+        long[] grownMessages = new long[messages.length * 2];
+        boolean[] grownIsTransferred = new boolean[messages.length * 2];
+        int grownMask = grownMessages.length - 1;
+
+        // every message keeps its number, only where it sits changes
+        for (long index = takeIndex; index != putIndex; index++) {
+            grownMessages[(int) (index & grownMask)] = messages[(int) (index & mask)];
+            grownIsTransferred[(int) (index & grownMask)] = isTransferred[(int) (index & mask)];
+        }
+        messages = grownMessages;
+        isTransferred = grownIsTransferred;
+        mask = grownMask;
+    }
+}
@@ -0,0 +1,96 @@
+package synchronizers;
+
+import utils.Timeouts;
+import utils.Waiter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+// KeyedExchanger that pairs on any key with equals and hashCode, such as correlation UUIDs
+public class ObjectKeyedExchanger<K, T> {
+
+    private final ReentrantLock monitor = new ReentrantLock();
+    // the thread waiting for its pair on each key, its waiter holds its data until the pair swaps it for its own.
+    // there is never more than one, the next one to arrive is its pair
+    private final Map<K, Waiter> requests = new HashMap<>();
+
+    public Optional<T> exchange(K key, T myData, int timeout) throws InterruptedException {
+        monitor.lock();
+
+        try {
+
+            // check if pair thread is already waiting, if so take its data and leave mine in its place
+            Waiter pairRequest = requests.remove(key);
+            if (pairRequest != null) {
+                return swap(pairRequest, myData);
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                return Optional.empty();
+            }
+
+            // prepare wait
+            Waiter dataRequest = Waiter.current();
+            dataRequest.setItem(myData);
+            requests.put(key, dataRequest);
+
+            try {
+                return awaitPair(monitor, dataRequest, timeout);
+            } finally {
+                // gave up, the pair takes the request out of its slot before fulfilling it
+                if (!dataRequest.isDone()) {
+                    requests.remove(key);
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // the pairing shared with KeyedExchanger and LongKeyedExchanger, which only differ in the map that holds the
+    // waiting threads so that their keys aren't boxed
+
+    // must be called with monitor held and pairRequest already out of its slot, completes it with myData
+    static <T> Optional<T> swap(Waiter pairRequest, T myData) {
+        T pairData = pairRequest.getItem();
+        pairRequest.complete(myData);
+        return Optional.of(pairData);
+    }
+
+    // must be called with monitor held and dataRequest in its slot. if the pair doesn't arrive in time it returns
+    // empty, or throws if interrupted, and the caller must take dataRequest out of its slot
+    static <T> Optional<T> awaitPair(ReentrantLock monitor, Waiter dataRequest, int timeout)
+            throws InterruptedException {
+        long start = Timeouts.start(timeout);
+        long remaining = Timeouts.remaining(start);
+
+        while (true) {
+
+            try {
+                // if the thread got to this point it means that the pair thread didn't arrive yet
+                // so it's time to wait
+                dataRequest.await(monitor, remaining);
+
+            } catch (InterruptedException e) {
+                // giving up
+                if (dataRequest.isDone()) {
+                    Thread.currentThread().interrupt();
+                    return Optional.of(dataRequest.getItem());
+                }
+                throw e;
+            }
+
+            if (dataRequest.isDone()) {
+                return Optional.of(dataRequest.getItem());
+            }
+
+            remaining = Timeouts.remaining(start);
+            if (Timeouts.isTimeout(remaining)) {
+                return Optional.empty();
+            }
+        }
+    }
+}
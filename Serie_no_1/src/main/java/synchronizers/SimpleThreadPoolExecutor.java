@@ -2,184 +2,1034 @@ package synchronizers;
 
 import utils.*;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class SimpleThreadPoolExecutor {
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-    private final Lock monitor = new ReentrantLock();
+public class SimpleThreadPoolExecutor implements SimpleThreadPoolExecutorMXBean {
+
+    // max number of extra tasks a worker moves from the workQueue to its own deque, so that
+    // idle workers steal from it instead of all of them contending for the workQueue
+    private static final int WORK_TRANSFER_BATCH = 8;
+    // handed to a worker waiting on the handoffQueue to make it go steal or notice that the executor closed
+    private static final Work<Void> WAKE_UP = new Work<>(() -> null);
+    // scheduled tasks are due at most one tick late, a timer whose delay is longer than a turn of the wheel
+    // stays in its bucket for as many extra turns as needed
+    private static final int TIMER_TICK = 10;
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    private final ReentrantLock monitor = new ReentrantLock();
     private final Condition condition = monitor.newCondition();
+    // submitters blocked by a full workQueue
+    private final Condition notFull = monitor.newCondition();
+    // workers up to corePoolSize are never reclaimed by keepAliveTime
+    private final int corePoolSize;
+    // with virtual threads maxPoolSize limits how many tasks run at the same time instead of how many threads exist
     private final int maxPoolSize;
     private final int keepAliveTime;
+    private final boolean useVirtualThreads;
+    // when present, replaces workQueue and requestWorkQueue so that submitting and fetching work never take monitor
+    private final LockFreeDualQueue<Work<?>> handoffQueue;
+    // bounds the workQueue, tasks moved to the workers' deques no longer count towards it
+    private final int queueCapacity;
+    private final SaturationPolicy saturationPolicy;
+    private final int saturationTimeout;
+    // volatile so that workers can count it against queueCapacity without monitor
+    private volatile int queuedWork = 0;
+    private int peakQueuedWork = 0;
+    // striped so that workers recording what they did don't contend with each other
+    private final LongAdder blockedCount = new LongAdder();
+    private final LongAdder callerRunsCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder keepAliveExpirations = new LongAdder();
+    private final LongAdder completedTasks = new LongAdder();
+    // from submission, or from being due for scheduled tasks, until a worker starts running the task
+    private final LatencyHistogram queueWaitTime = new LatencyHistogram();
+    private final LatencyHistogram executionTime = new LatencyHistogram();
+    private ObjectName mBeanName;
     private int existingThreads = 0;
-    private int availableThreads = 0;
-    private SynchronizerState state = SynchronizerState.isOpen;
-    private final NodeLinkedList<WorkerThread> threadPool = new NodeLinkedList<>();
-    private final NodeLinkedList<Work> workQueue = new NodeLinkedList<>();
-    private final NodeLinkedList<Request> requestWorkQueue = new NodeLinkedList<>();
+    // written under monitor, read without it by workers that pushed to their deque and may need to wake someone
+    private volatile int availableThreads = 0;
+    private volatile SynchronizerState state = SynchronizerState.isOpen;
+    // copy on write so that thieves can go through the other workers' deques without acquiring monitor
+    private volatile Worker[] threadPool = new Worker[0];
+    private final NodeLinkedList<Work<?>> workQueue = new NodeLinkedList<>();
+    // idle workers, each one with its reusable waiter that the work is handed over in
+    private final NodeLinkedList<Waiter> requestWorkQueue = new NodeLinkedList<>();
+    // created, under monitor, with the first scheduled task
+    private TimerWheel timerWheel;
 
     public SimpleThreadPoolExecutor(int maxPoolSize, int keepAliveTime) {
+        this(0, maxPoolSize, keepAliveTime);
+    }
+
+    public SimpleThreadPoolExecutor(int corePoolSize, int maxPoolSize, int keepAliveTime) {
+        this(corePoolSize, maxPoolSize, keepAliveTime, Integer.MAX_VALUE, SaturationPolicy.reject, 0, false, false);
+    }
+
+    // once queueCapacity tasks are waiting for a worker the saturationPolicy decides what happens to the next ones,
+    // saturationTimeout is how long the block policy waits for room before rejecting. tasks submitted from inside
+    // the pool wait in the workers' deques and count against the same capacity, except that a worker never blocks
+    // for room, since it's the one that would make it, so under block it runs them itself as with callerRuns
+    public SimpleThreadPoolExecutor(int maxPoolSize, int keepAliveTime, int queueCapacity,
+                                    SaturationPolicy saturationPolicy, int saturationTimeout) {
+        this(0, maxPoolSize, keepAliveTime, queueCapacity, saturationPolicy, saturationTimeout);
+    }
+
+    public SimpleThreadPoolExecutor(int corePoolSize, int maxPoolSize, int keepAliveTime, int queueCapacity,
+                                    SaturationPolicy saturationPolicy, int saturationTimeout) {
+        this(corePoolSize, maxPoolSize, keepAliveTime, queueCapacity, saturationPolicy, saturationTimeout,
+                false, false);
+    }
+
+    private SimpleThreadPoolExecutor(int corePoolSize, int maxPoolSize, int keepAliveTime, int queueCapacity,
+                                     SaturationPolicy saturationPolicy, int saturationTimeout,
+                                     boolean useVirtualThreads, boolean useLockFreeHandoff) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queue capacity must be positive");
+        }
+        if (corePoolSize < 0 || corePoolSize > maxPoolSize) {
+            throw new IllegalArgumentException("core pool size must be between 0 and the max pool size");
+        }
+        this.corePoolSize = corePoolSize;
         this.maxPoolSize = maxPoolSize;
         this.keepAliveTime = keepAliveTime;
+        this.queueCapacity = queueCapacity;
+        this.saturationPolicy = saturationPolicy;
+        this.saturationTimeout = saturationTimeout;
+        this.useVirtualThreads = useVirtualThreads;
+        this.handoffQueue = useLockFreeHandoff ? new LockFreeDualQueue<>() : null;
+    }
+
+    // every task runs on its own virtual thread, at most maxConcurrency of them at the same time.
+    // virtual threads are cheaper to create than to keep idle so there is no keepAliveTime
+    public static SimpleThreadPoolExecutor withVirtualThreads(int maxConcurrency) {
+        return new SimpleThreadPoolExecutor(0, maxConcurrency, 0, Integer.MAX_VALUE, SaturationPolicy.reject, 0,
+                true, false);
+    }
+
+    // submitters hand work to idle workers, or queue it, through a lock free dual queue instead of monitor,
+    // which is then only taken when workers are created or leave the pool. the dual queue is unbounded
+    public static SimpleThreadPoolExecutor withLockFreeHandoff(int maxPoolSize, int keepAliveTime) {
+        return withLockFreeHandoff(0, maxPoolSize, keepAliveTime);
+    }
+
+    // idle workers wait on the dual queue in arrival order, so unlike with monitor they are reused FIFO
+    public static SimpleThreadPoolExecutor withLockFreeHandoff(int corePoolSize, int maxPoolSize, int keepAliveTime) {
+        return new SimpleThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveTime, Integer.MAX_VALUE,
+                SaturationPolicy.reject, 0, false, true);
+    }
+
+    // starts the core workers ahead of the first tasks, returns how many were started
+    public int prestartAllCoreThreads() {
+        monitor.lock();
+
+        try {
+            int started = 0;
+            // virtual threads only exist while they run a task
+            while (!useVirtualThreads && existingThreads < corePoolSize && state == SynchronizerState.isOpen) {
+                manageThreads(null);
+                started++;
+            }
+            return started;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    @Override
+    public int getPoolSize() {
+        monitor.lock();
+
+        try {
+            return existingThreads;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // the counters are read one by one without stopping the executor, so they may be slightly out of step
+    @Override
+    public ExecutorMetrics getMetrics() {
+        int observedQueuedWork;
+        int observedPeakQueuedWork;
+        int observedExistingThreads;
+
+        monitor.lock();
+
+        try {
+            observedQueuedWork = queuedWork;
+            observedPeakQueuedWork = peakQueuedWork;
+            observedExistingThreads = existingThreads;
+        } finally {
+            monitor.unlock();
+        }
+
+        // work submitted from inside the pool waits in the deques
+        return new ExecutorMetrics(observedQueuedWork + dequedWork(), observedPeakQueuedWork, observedExistingThreads,
+                availableThreads, completedTasks.sum(), keepAliveExpirations.sum(), rejectedCount.sum(),
+                blockedCount.sum(), callerRunsCount.sum(), droppedCount.sum(), queueWaitTime.mean(),
+                queueWaitTime.percentile(50), queueWaitTime.percentile(99), queueWaitTime.max(),
+                executionTime.mean(), executionTime.percentile(50), executionTime.percentile(99),
+                executionTime.max());
+    }
+
+    // exposes getMetrics and getPoolSize through the platform MBean server under the given name
+    public void registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("synchronizers:type=SimpleThreadPoolExecutor,name=" + name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        mBeanName = objectName;
+    }
+
+    public void unregisterMBean() throws JMException {
+        if (mBeanName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+            mBeanName = null;
+        }
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.sum();
+    }
+
+    public long getCallerRunsCount() {
+        return callerRunsCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
     }
 
     public <T> Result<T> execute(Callable<T> command) throws InterruptedException {
+        Work<T> work = new Work<>(command);
+        Worker worker = currentWorker();
 
-        return new Result<T>() {
+        // tasks submitted from inside the pool go to the submitting worker's deque
+        // where idle workers can steal them
+        if (worker != null) {
+            if (state != SynchronizerState.isOpen) {
+                throw new RejectedExecutionException();
+            }
+            if (pushToDeque(worker, work)) {
+                signalIdleWorkers(1);
+            } else {
+                runWork(work);
+            }
+            return work;
+        }
 
-            NodeLinkedList.Node<WorkerThread> workerThread;
+        manageWork(work);
+        return work;
+    }
 
-            private void manageExecutor() {
-                monitor.lock();
+    // submits every command under a single acquisition of monitor
+    public <T> List<Result<T>> executeAll(Collection<? extends Callable<T>> commands) throws InterruptedException {
+        List<Work<T>> works = new ArrayList<>(commands.size());
+        for (Callable<T> command : commands) {
+            works.add(new Work<>(command));
+        }
+
+        manageWork(works);
+        return new ArrayList<>(works);
+    }
+
+    // executes every command and waits until all of them complete, the ones that don't complete
+    // before the timeout are cancelled
+    public <T> List<Result<T>> invokeAll(Collection<? extends Callable<T>> commands, int timeout)
+            throws InterruptedException {
+        List<Work<T>> works = new ArrayList<>(commands.size());
+        for (Callable<T> command : commands) {
+            works.add(new Work<>(command));
+        }
+
+        manageWork(works);
+
+        boolean allCompleted = false;
+        try {
+            long limit = Timeouts.start(timeout);
 
+            for (Work<T> work : works) {
+                long remaining = Timeouts.remaining(limit);
+                if (!work.isComplete() && (Timeouts.isTimeout(remaining) || !work.await((int) remaining))) {
+                    return new ArrayList<>(works);
+                }
+            }
+
+            allCompleted = true;
+            return new ArrayList<>(works);
+        } finally {
+            if (!allCompleted) {
+                for (Work<T> work : works) {
+                    work.tryCancel();
+                }
+            }
+        }
+    }
+
+    // executes every command and returns the value of the first one that completes successfully, cancelling
+    // the others. if all of them fail the last exception is thrown, if none completes in time nothing is returned
+    public <T> Optional<T> invokeAny(Collection<? extends Callable<T>> commands, int timeout) throws Exception {
+        if (commands.isEmpty()) {
+            throw new IllegalArgumentException("cannot invoke any of an empty collection of commands");
+        }
+
+        FirstResult<T> firstResult = new FirstResult<>(commands.size());
+        List<Work<T>> works = new ArrayList<>(commands.size());
+        for (Callable<T> command : commands) {
+            works.add(new AnyWork<>(() -> {
                 try {
+                    T value = command.call();
+                    firstResult.succeeded(value);
+                    return value;
+                } catch (Exception e) {
+                    firstResult.failed(e);
+                    throw e;
+                }
+            }, firstResult));
+        }
+
+        manageWork(works);
+
+        try {
+            return firstResult.get(timeout);
+        } finally {
+            for (Work<T> work : works) {
+                work.tryCancel();
+            }
+        }
+    }
+
+    // runs the command once delay milliseconds have passed, cancelling the result before that removes its timer
+    public <T> Result<T> schedule(Callable<T> command, int delay) {
+        ScheduledWork<T> work = new ScheduledWork<>(command);
+        work.timer = addTimer(() -> submitScheduled(work), delay);
+
+        // cancelled before the timer was set
+        if (work.isComplete()) {
+            work.timer.cancel();
+        }
+        return work;
+    }
+
+    // runs the command every period milliseconds, starting after initialDelay. runs never overlap, a late run
+    // delays the next ones instead of being skipped. the result only completes when it's cancelled, the
+    // executor shuts down, or the command throws, in which case no more runs are scheduled
+    public Result<Void> scheduleAtFixedRate(Runnable command, int initialDelay, int period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+
+        PeriodicWork work = new PeriodicWork(command, period, Timeouts.start(Math.max(0, initialDelay)));
+        work.scheduleNext();
+        return work;
+    }
+
+    private TimerWheel.Timer addTimer(Runnable task, long delay) {
+        monitor.lock();
+
+        try {
+            // if the executor is not open to tasks then exception is thrown
+            if (state != SynchronizerState.isOpen) {
+                throw new RejectedExecutionException();
+            }
+
+            if (timerWheel == null) {
+                timerWheel = new TimerWheel(TIMER_TICK, TIMER_WHEEL_SIZE);
+            }
+            return timerWheel.schedule(task, delay);
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // runs on the ticker thread once the work is due. the ticker must only hand work to someone else, so the
+    // saturation policy doesn't apply: the work was accepted when it was scheduled and is queued past
+    // queueCapacity instead of running here or waiting for room
+    private void submitScheduled(Work<?> work) {
+        work.submittedAt = System.nanoTime();
+
+        if (handoffQueue != null) {
+            try {
+                handOff(work);
+            } catch (RejectedExecutionException e) {
+                work.tryCancel();
+            }
+            return;
+        }
+
+        monitor.lock();
+
+        try {
+            if (state != SynchronizerState.isOpen) {
+                work.tryCancel();
+                return;
+            }
+
+            enqueueWork(work, true);
+        } catch (InterruptedException e) {
+            // can't happen, queueing past capacity never waits
+            work.tryCancel();
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    private void manageWork(Work<?> work) throws InterruptedException {
+        if (handoffQueue != null) {
+            handOff(work);
+            return;
+        }
+
+        boolean callerRuns;
+        monitor.lock();
+
+        try {
+            // if the executor is not open to tasks then exception is thrown
+            if (state != SynchronizerState.isOpen) {
+                throw new RejectedExecutionException();
+            }
+
+            callerRuns = !enqueueWork(work, false);
+
+        } finally {
+            monitor.unlock();
+        }
+
+        if (callerRuns) {
+            runWork(work);
+        }
+    }
 
-                    // if the executor is not open to tasks then exception is thrown
-                    // else the executor will proceed to create threads or use already available threads
-                    // to execute the desired tasks
-                    if (state != SynchronizerState.isOpen) {
-                        throw new RejectedExecutionException();
+    private void manageWork(List<? extends Work<?>> works) throws InterruptedException {
+        Worker worker = currentWorker();
+
+        if (worker != null) {
+            if (state != SynchronizerState.isOpen) {
+                throw new RejectedExecutionException();
+            }
+            List<Work<?>> callerRuns = null;
+            int pushed = 0;
+
+            try {
+                for (Work<?> work : works) {
+                    if (pushToDeque(worker, work)) {
+                        pushed++;
+                    } else {
+                        if (callerRuns == null) {
+                            callerRuns = new ArrayList<>();
+                        }
+                        callerRuns.add(work);
                     }
+                }
+            } finally {
+                // the ones pushed before a rejection still need someone to steal them
+                if (pushed > 0) {
+                    signalIdleWorkers(pushed);
+                }
+            }
+
+            if (callerRuns != null) {
+                for (Work<?> work : callerRuns) {
+                    runWork(work);
+                }
+            }
+            return;
+        }
+
+        if (handoffQueue != null) {
+            for (Work<?> work : works) {
+                handOff(work);
+            }
+            return;
+        }
+
+        List<Work<?>> callerRuns = null;
+        monitor.lock();
 
-                    // check if there are already available threads
-                    if (threadPool.isEmpty()) {
-                        manageThreads();
+        try {
+            // if the executor is not open to tasks then exception is thrown
+            if (state != SynchronizerState.isOpen) {
+                throw new RejectedExecutionException();
+            }
+
+            // idle workers are only woken while there is work left to hand them
+            for (Work<?> work : works) {
+                if (!enqueueWork(work, false)) {
+                    if (callerRuns == null) {
+                        callerRuns = new ArrayList<>();
                     }
+                    callerRuns.add(work);
+                }
+            }
 
-                    // time to select a thread
-                    availableThreads--;
-                    workerThread = threadPool.pull();
-                    workerThread.value.start();
+        } finally {
+            monitor.unlock();
+        }
+
+        if (callerRuns != null) {
+            for (Work<?> work : callerRuns) {
+                runWork(work);
+            }
+        }
+    }
+
+    private void handOff(Work<?> work) {
+        if (state != SynchronizerState.isOpen) {
+            throw new RejectedExecutionException();
+        }
+
+        // easy path, an idle worker takes it straight away
+        if (handoffQueue.tryTransfer(work)) {
+            return;
+        }
+
+        // no idle workers, should we create a new one to run this work
+        if (threadPool.length < maxPoolSize && tryStartWorker(work)) {
+            return;
+        }
+
+        handoffQueue.put(work);
+
+        // the executor closed while we were queueing, withdraw the work unless a worker already took it
+        if (state != SynchronizerState.isOpen && work.tryWithdraw()) {
+            throw new RejectedExecutionException();
+        }
+
+        // the last worker may have left the pool without seeing our work, it checks the queue after
+        // leaving and we check the pool after queueing so at least one of us notices
+        if (threadPool.length == 0) {
+            tryStartWorker(null);
+        }
+    }
+
+    private boolean tryStartWorker(Work<?> firstWork) {
+        monitor.lock();
+
+        try {
+            if (existingThreads < maxPoolSize && state == SynchronizerState.isOpen) {
+                manageThreads(firstWork);
+                return true;
+            }
+            return false;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // must be called with monitor held, returns false when the caller has to run the work itself.
+    // with ignoreCapacity the work is always queued, it never runs on the caller nor blocks it
+    private boolean enqueueWork(Work<?> work, boolean ignoreCapacity) throws InterruptedException {
+
+        while (true) {
+
+            // cancelled before it got here, don't spend a worker on it
+            if (work.isComplete()) {
+                return true;
+            }
+
+            // check if there are any work requests to be fulfilled
+            if (requestWorkQueue.isNotEmpty()) {
+                completeRequest(work);
+                return true;
+            }
+
+            // no idle workers, should we create a new one to run this work
+            if (existingThreads < maxPoolSize) {
+                manageThreads(work);
+                return true;
+            }
+
+            if (queuedWork < queueCapacity || ignoreCapacity) {
+                work.queueNode = workQueue.push(work);
+                work.queuedIn = this;
+                queuedWork++;
+                peakQueuedWork = Math.max(peakQueuedWork, queuedWork);
+
+                // cancelled while we were queueing it, the canceller may not have seen where
+                if (work.isComplete()) {
+                    unlinkQueuedWork(work);
+                }
+                return true;
+            }
+
+            switch (saturationPolicy) {
+                case callerRuns:
+                    callerRunsCount.increment();
+                    return false;
+
+                case dropOldest:
+                    droppedCount.increment();
+                    pullQueuedWork().tryCancel();
+                    break;
+
+                case block:
+                    blockedCount.increment();
+                    if (!awaitRoomInWorkQueue()) {
+                        rejectedCount.increment();
+                        throw new RejectedExecutionException("work queue is full");
+                    }
+                    // a worker may have become idle while we waited, so decide again
+                    break;
+
+                default:
+                    rejectedCount.increment();
+                    throw new RejectedExecutionException("work queue is full");
+            }
+        }
+    }
+
+    // must be called with monitor held
+    private boolean awaitRoomInWorkQueue() throws InterruptedException {
+
+        // check if it's supposed to wait
+        if (Timeouts.noWait(saturationTimeout)) {
+            return false;
+        }
+
+        // prepare wait
+        long limit = Timeouts.start(saturationTimeout);
+        long remaining = Timeouts.remaining(limit);
+
+        while (true) {
+            try {
+                notFull.await(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // giving up, let someone else have the room we may have been signalled for
+                notFull.signal();
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+
+            if (state != SynchronizerState.isOpen) {
+                throw new RejectedExecutionException();
+            }
+
+            if (queuedWork < queueCapacity) {
+                return true;
+            }
+
+            // check if timeout has ended
+            remaining = Timeouts.remaining(limit);
+            if (Timeouts.isTimeout(remaining)) {
+                return false;
+            }
+        }
+    }
+
+    // must be called with monitor held and workQueue not empty
+    private Work<?> pullQueuedWork() {
+        Work<?> work = workQueue.pull().value;
+        work.queueNode = null;
+        queuedWork--;
+        notFull.signal();
+        return work;
+    }
+
+    // the work was cancelled while waiting in the workQueue, give its spot back
+    private void unlinkQueuedWork(Work<?> work) {
+        monitor.lock();
+
+        try {
+            if (work.queueNode == null) {
+                // already pulled
+                return;
+            }
+            workQueue.remove(work.queueNode);
+            work.queueNode = null;
+            queuedWork--;
+            notFull.signal();
+            checkIfExecutorIsAwaitingTermination();
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // must be called with monitor held
+    private void manageThreads(Work<?> firstWork) {
+        if (useVirtualThreads) {
+            // virtual threads are neither pooled nor stolen from, so they stay out of threadPool
+            existingThreads++;
+            ThreadFactory.newVirtualThread(() -> runOnVirtualThread(firstWork)).start();
+            return;
+        }
 
+        Worker worker = new Worker(firstWork);
+        Worker[] workers = Arrays.copyOf(threadPool, threadPool.length + 1);
+        workers[workers.length - 1] = worker;
+        threadPool = workers;
+        existingThreads++;
+        ThreadFactory.newWorkerThread(worker).start();
+    }
+
+    private void runOnVirtualThread(Work<?> work) {
+        try {
+            // keep going while there is queued work, giving the slot back otherwise
+            while (work != null) {
+                Thread.interrupted();
+                runWork(work);
+                work = pollWork();
+            }
+        } finally {
+            // a task threw an error, give the slot back
+            if (work != null) {
+                monitor.lock();
+                try {
+                    existingThreads--;
+                    checkIfExecutorIsAwaitingTermination();
                 } finally {
                     monitor.unlock();
                 }
             }
+        }
+    }
+
+    private void runWork(Work<?> work) {
+        long start = System.nanoTime();
+
+        // cancelled before it could start
+        if (!work.run()) {
+            return;
+        }
+
+        executionTime.record(System.nanoTime() - start);
+        queueWaitTime.record(start - work.submittedAt);
+        completedTasks.increment();
+    }
+
+    private Work<?> pollWork() {
+        monitor.lock();
+
+        try {
+            if (workQueue.isNotEmpty()) {
+                return pullQueuedWork();
+            }
+
+            existingThreads--;
+            checkIfExecutorIsAwaitingTermination();
+            return null;
+        } finally {
+            monitor.unlock();
+        }
+    }
 
-            @Override
-            public boolean isComplete() {
-                return workerThread.value.hasBeenExecuted;
+    // must be called with monitor held
+    private void removeWorker(Worker worker) {
+        Worker[] workers = new Worker[threadPool.length - 1];
+        int i = 0;
+        for (Worker w : threadPool) {
+            if (w != worker) {
+                workers[i++] = w;
             }
+        }
+        threadPool = workers;
+        existingThreads--;
+        checkIfExecutorIsAwaitingTermination();
+    }
 
-            @Override
-            public boolean tryCancel() {
-                workerThread.value.interrupt();
+    // must be called with monitor held, null work means the worker should go look for work to steal.
+    // the most recently idle worker is picked, its caches are still warm and the ones that stay idle
+    // the longest are the ones whose keepAliveTime ends
+    private void completeRequest(Work<?> work) {
+        NodeLinkedList.Node<Waiter> requestNode = requestWorkQueue.pullTail();
+        availableThreads--;
+        requestNode.value.complete(work);
+    }
 
-                if (workerThread.value.isAlive()) {
-                    return false;
+    // wakes, or creates, up to nOfWorkers workers to steal the work that was just pushed to a deque
+    private void signalIdleWorkers(int nOfWorkers) {
+
+        // availableThreads is read after the push to the deque and written before an idle worker checks the
+        // deques for the last time, so at least one of the two sides sees the other. with the handoffQueue the
+        // idle worker's request plays the part of availableThreads
+        if (handoffQueue != null) {
+            for (int i = 0; i < nOfWorkers; i++) {
+                if (!handoffQueue.tryTransfer(WAKE_UP) && !(threadPool.length < maxPoolSize && tryStartWorker(null))) {
+                    return;
                 }
+            }
+            return;
+        }
 
-                workerThread.value.hasBeenCancelled = true;
+        if (availableThreads == 0 && threadPool.length >= maxPoolSize) {
+            return;
+        }
+
+        monitor.lock();
+
+        try {
+            for (int i = 0; i < nOfWorkers; i++) {
+                if (requestWorkQueue.isNotEmpty()) {
+                    completeRequest(null);
+                } else if (existingThreads < maxPoolSize && state == SynchronizerState.isOpen) {
+                    // the new worker starts by stealing
+                    manageThreads(null);
+                } else {
+                    return;
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    private Worker currentWorker() {
+        Thread thread = Thread.currentThread();
+
+        if (thread instanceof WorkerThread) {
+            Runnable runnable = ((WorkerThread) thread).getRunnable();
+            if (runnable instanceof Worker && ((Worker) runnable).executor() == this) {
+                return (Worker) runnable;
+            }
+        }
+
+        return null;
+    }
+
+    private Work<?> steal(Worker thief) {
+        Worker[] workers = threadPool;
+
+        // start from a random victim so that thieves spread out
+        int start = ThreadLocalRandom.current().nextInt(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            Worker victim = workers[(start + i) % workers.length];
+            if (victim != thief) {
+                Work<?> work = victim.deque.steal();
+                if (work != null) {
+                    return work;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private boolean hasWorkToSteal(Worker thief) {
+        for (Worker victim : threadPool) {
+            if (victim != thief && !victim.deque.isEmpty()) {
                 return true;
             }
+        }
+        return false;
+    }
 
-            @Override
-            public Optional<T> get(int timeout) throws Exception {
-                final Optional[] result = {Optional.empty()};
-                final Exception[] exceptionThrown = {null};
+    // pushes work submitted from inside the pool to the worker's deque, unless the tasks waiting in workQueue
+    // and in the deques already fill queueCapacity. returns false when the caller has to run the work itself
+    private boolean pushToDeque(Worker worker, Work<?> work) {
+        if (queueCapacity != Integer.MAX_VALUE && queuedWork + dequedWork() >= queueCapacity) {
+            if (saturationPolicy == SaturationPolicy.reject) {
+                rejectedCount.increment();
+                throw new RejectedExecutionException("work queue is full");
+            }
 
-                manageWork(() -> {
-                    try {
-                        result[0] = Optional.of(new Lazy<>(command).get(timeout));
-                    } catch (Exception e) {
-                        exceptionThrown[0] = e;
-                        System.out.println(exceptionThrown);
-                    } finally {
-                        workerThread.value.hasBeenExecuted = true;
+            // only the oldest of our own tasks, the other deques belong to their workers
+            Work<?> oldest = saturationPolicy == SaturationPolicy.dropOldest ? worker.deque.steal() : null;
+            if (oldest != null) {
+                droppedCount.increment();
+                oldest.tryCancel();
+            } else {
+                // callerRuns, block, or nothing of ours to drop
+                callerRunsCount.increment();
+                return false;
+            }
+        }
+
+        worker.deque.push(work);
+        return true;
+    }
+
+    // tasks waiting in the workers' deques, read while the workers keep going so it's only an estimate
+    private int dequedWork() {
+        int size = 0;
+        for (Worker worker : threadPool) {
+            size += worker.deque.size();
+        }
+        return size;
+    }
+
+    // must be called with monitor held and workQueue not empty
+    private Work<?> pullWork(Worker worker) {
+        Work<?> work = pullQueuedWork();
+
+        for (int i = 0; i < WORK_TRANSFER_BATCH && workQueue.isNotEmpty(); i++) {
+            worker.deque.push(pullQueuedWork());
+        }
+
+        return work;
+    }
+
+    // returns null when the worker should leave the pool, in which case it has already been removed from it
+    private Work<?> getWork(Worker worker) {
+
+        // easy path, own deque first and then the other workers' deques
+        Work<?> work = worker.deque.pop();
+        if (work != null) {
+            return work;
+        }
+
+        work = steal(worker);
+        if (work != null) {
+            return work;
+        }
+
+        if (handoffQueue != null) {
+            return takeHandedOffWork(worker);
+        }
+
+        monitor.lock();
+
+        try {
+            long limit = Timeouts.start(keepAliveTime);
+
+            idle:
+            while (true) {
+
+                // is there work to do? if so run it
+                if (workQueue.isNotEmpty()) {
+                    return pullWork(worker);
+                }
+
+                // no more work will come, leave the pool
+                if (state != SynchronizerState.isOpen) {
+                    removeWorker(worker);
+                    return null;
+                }
+
+                // check if it's supposed to wait, core workers wait for as long as it takes
+                long remaining = Timeouts.remaining(limit);
+                if (Timeouts.isTimeout(remaining)) {
+                    if (existingThreads > corePoolSize) {
+                        keepAliveExpirations.increment();
+                        removeWorker(worker);
+                        return null;
                     }
-                });
+                    limit = Timeouts.start(Integer.MAX_VALUE);
+                    remaining = Timeouts.remaining(limit);
+                }
 
-                manageExecutor();
+                // request work
+                Waiter workRequest = Waiter.current();
+                requestWorkQueue.push(workRequest.node());
+                availableThreads++;
 
-                // if thread has finished we should put it back in the threadPool to avoid creating
-                // more threads for further tasks
-                if (workerThread.value.hasBeenExecuted || workerThread.value.isInterrupted()) {
-                    threadPool.push(workerThread.value);
+                // look at the deques one last time now that availableThreads was published
+                work = steal(worker);
+                if (work != null) {
+                    requestWorkQueue.remove(workRequest.node());
+                    availableThreads--;
+                    return work;
                 }
 
-                // wait for task to be executed
-                while (!workerThread.value.hasBeenExecuted);
+                while (true) {
+
+                    try {
+                        workRequest.await(monitor, remaining);
+                    } catch (InterruptedException e) {
+                        // workers are only interrupted on behalf of the tasks they run so there is nothing to give up
+                    }
+
+                    if (workRequest.isDone()) {
+                        break;
+                    }
+
+                    // check if timeout has ended
+                    remaining = Timeouts.remaining(limit);
+                    if (Timeouts.isTimeout(remaining)) {
+                        requestWorkQueue.remove(workRequest.node());
+                        availableThreads--;
+                        continue idle;
+                    }
+                }
 
-                if (exceptionThrown[0] != null) {
-                    throw exceptionThrown[0];
+                // work was handed to us directly
+                if (workRequest.getItem() != null) {
+                    return workRequest.getItem();
                 }
 
-                return result[0];
+                // someone pushed work to a deque, go steal it
+                work = steal(worker);
+                if (work != null) {
+                    return work;
+                }
             }
-        };
+        } finally {
+            monitor.unlock();
+        }
     }
 
-    private void manageThreads() {
+    private Work<?> takeHandedOffWork(Worker worker) {
+        long limit = Timeouts.start(keepAliveTime);
 
-        // should we create a new workerThread
-        if (existingThreads < maxPoolSize && state == SynchronizerState.isOpen) {
-            existingThreads++;
-            availableThreads++;
-            threadPool.push(ThreadFactory.newWorkerThread(() -> {
+        while (true) {
+            Work<?> work;
+            long remaining = Timeouts.remaining(limit);
 
-                try {
-                    monitor.lock();
+            try {
+                // look at the deques one last time once the request is enqueued, a push made before that couldn't
+                // wake us up
+                work = Timeouts.isTimeout(remaining)
+                        ? handoffQueue.poll()
+                        : handoffQueue.take(remaining, () -> hasWorkToSteal(worker));
+            } catch (InterruptedException e) {
+                // workers are only interrupted on behalf of the tasks they run so there is nothing to give up
+                continue;
+            }
 
-                    // is there work to do? if so run it
-                    if (workQueue.isNotEmpty()) {
-                        workQueue.pull().value.work.run();
-                        checkIfExecutorIsAwaitingTermination();
-                        return;
-                    }
+            // someone pushed work to a deque, go steal it. also before leaving or waiting again, whatever was
+            // pushed while the request wasn't enqueued has no one else to wake up for it
+            if (work == WAKE_UP || work == null) {
+                work = steal(worker);
+            }
 
-                    // check if it's supposed to wait
-                    if (Timeouts.noWait(keepAliveTime)) {
-                        checkIfExecutorIsAwaitingTermination();
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
+            if (work != null) {
+                return work;
+            }
 
-                    // request work
-                    NodeLinkedList.Node<Request> workRequest = requestWorkQueue.push(new Request(monitor));
-                    // prepare wait
-                    long limit = Timeouts.start(keepAliveTime);
-                    long remaining = Timeouts.remaining(limit);
-
-                    while (true) {
-
-                        try {
-                            workRequest.value.condition.await(remaining, TimeUnit.MILLISECONDS);
-                        } catch (InterruptedException e) {
-                            if (workRequest.value.isDone) {
-                                // couldn't give up because request was already fulfilled
-                                workQueue.pull().value.work.run();
-                                checkIfExecutorIsAwaitingTermination();
-                                return;
-                            }
-                            Thread.currentThread().interrupt();
-                        }
+            // keepAliveTime ended or the executor closed, leave the pool
+            if (Timeouts.isTimeout(Timeouts.remaining(limit)) || state != SynchronizerState.isOpen) {
+                monitor.lock();
 
-                        if (workRequest.value.isDone) {
-                            availableThreads--;
-                            workQueue.pull().value.work.run();
-                            // check if i am the last thread so that i can notify awaitTermination method
-                            checkIfExecutorIsAwaitingTermination();
-                            return;
-                        }
+                try {
+                    // core workers wait for as long as it takes
+                    if (existingThreads <= corePoolSize && state == SynchronizerState.isOpen) {
+                        limit = Timeouts.start(Integer.MAX_VALUE);
+                        continue;
+                    }
 
-                        // check if timeout has ended
-                        remaining = Timeouts.remaining(limit);
-                        if (Timeouts.isTimeout(remaining)) {
-                            Thread.currentThread().interrupt();
-                            checkIfExecutorIsAwaitingTermination();
-                            return;
-                        }
+                    if (state == SynchronizerState.isOpen) {
+                        keepAliveExpirations.increment();
                     }
+                    removeWorker(worker);
 
+                    // work queued by someone who saw us in the pool before we left
+                    if (existingThreads == 0 && handoffQueue.hasData() && state == SynchronizerState.isOpen) {
+                        manageThreads(null);
+                    }
+                    return null;
                 } finally {
                     monitor.unlock();
                 }
-            }));
+            }
         }
     }
 
@@ -188,46 +1038,45 @@ public class SimpleThreadPoolExecutor {
         // means that a shutdown request has been initiated
         // if both workQueue and threadPool are empty then all
         // the tasks have been executed and we can change state and signal AwaitTermination method
-        if (state == SynchronizerState.isClosed && workQueue.isEmpty() && threadPool.isEmpty()) {
+        if (state == SynchronizerState.isClosed && workQueue.isEmpty() && existingThreads == 0) {
             state = SynchronizerState.isShutdown;
-            condition.signal();
+            condition.signalAll();
         }
     }
 
-    private void manageWork(Runnable runnable) {
-        monitor.lock();
+    // must be called with monitor held
+    private void close() {
+        if (state == SynchronizerState.isOpen) {
+            state = SynchronizerState.isClosed;
+        }
 
-        try {
-            // check if there are any work requests to be fulfilled
-            if (requestWorkQueue.isNotEmpty()) {
-                NodeLinkedList.Node<Request> requestNode = requestWorkQueue.pull();
-                workQueue.push(new Work(runnable));
-                requestNode.value.isDone = true;
-                requestNode.value.condition.signal();
-                return;
-            }
+        // wake idle workers so that they leave the pool instead of waiting for keepAliveTime
+        if (handoffQueue != null) {
+            handoffQueue.close();
+        }
+        while (requestWorkQueue.isNotEmpty()) {
+            completeRequest(null);
+        }
 
-            if (state == SynchronizerState.isOpen) {
-                workQueue.push(new Work(runnable));
-            }
+        // submitters blocked by a full workQueue give up
+        notFull.signalAll();
 
-        } finally {
-            monitor.unlock();
+        // pending timers won't fire anymore, submitting their work now gets it rejected, which cancels it
+        if (timerWheel != null) {
+            for (Runnable task : timerWheel.stop()) {
+                task.run();
+            }
         }
-    }
 
+        checkIfExecutorIsAwaitingTermination();
+    }
 
-    private void shutdown() {
+    public void shutdown() {
         monitor.lock();
 
         try {
-            // if there are no threads working we can just switch to shut down mode
-            if (workQueue.isEmpty() && existingThreads == availableThreads) {
-                state = SynchronizerState.isShutdown;
-                return;
-            }
-            // if not the remaining threads need to finish their work normally before shutting down the executor
-            state = SynchronizerState.isClosed;
+            // the remaining threads need to finish their work normally before shutting down the executor
+            close();
         } finally {
             monitor.unlock();
         }
@@ -238,13 +1087,13 @@ public class SimpleThreadPoolExecutor {
 
         try {
 
+            close();
+
             // happy path
             if (state == SynchronizerState.isShutdown) {
                 return true;
             }
 
-            state = SynchronizerState.isClosed;
-
             // check if it's supposed to wait
             if (Timeouts.noWait(timeout)) {
                 return false;
@@ -267,6 +1116,7 @@ public class SimpleThreadPoolExecutor {
                     return true;
                 }
 
+                remaining = Timeouts.remaining(start);
                 if (Timeouts.isTimeout(remaining)) {
                     return false;
                 }
@@ -278,21 +1128,282 @@ public class SimpleThreadPoolExecutor {
 
     }
 
-    private static class Work {
+    private final class Worker implements Runnable {
+
+        private final WorkStealingDeque<Work<?>> deque = new WorkStealingDeque<>();
+        private Work<?> firstWork;
+
+        Worker(Work<?> firstWork) {
+            this.firstWork = firstWork;
+        }
+
+        SimpleThreadPoolExecutor executor() {
+            return SimpleThreadPoolExecutor.this;
+        }
+
+        @Override
+        public void run() {
+            Work<?> work = firstWork;
+            firstWork = null;
+
+            try {
+                if (work == null) {
+                    work = getWork(this);
+                }
+
+                while (work != null) {
+                    // don't let an interrupt meant for the previous task leak into the next one
+                    Thread.interrupted();
+                    runWork(work);
+                    work = getWork(this);
+                }
+            } finally {
+                // a task threw an error, leave the pool
+                if (work != null) {
+                    monitor.lock();
+                    try {
+                        removeWorker(this);
+                    } finally {
+                        monitor.unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Work<T> extends CompletionHandle<T> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Work, Thread> RUNNER =
+                AtomicReferenceFieldUpdater.newUpdater(Work.class, Thread.class, "runner");
+        // how long a runner that was taken by a canceller spins for its interrupt before yielding to it
+        private static final int RELEASE_SPINS = 64;
+
+        private final Callable<T> command;
+        // System.nanoTime of when it was submitted
+        private long submittedAt = System.nanoTime();
+        // set before the work starts so that whoever cancels it while running can take it and interrupt it
+        private volatile Thread runner;
+        private volatile boolean isRunnerInterrupted = false;
+        // set under the monitor of the executor whose workQueue holds the work, so that cancelling unlinks it
+        private volatile SimpleThreadPoolExecutor queuedIn;
+        private NodeLinkedList.Node<Work<?>> queueNode;
+
+        Work(Callable<T> command) {
+            this.command = command;
+        }
+
+        // returns false if it didn't run because it was cancelled
+        boolean run() {
+            bindRunner();
+
+            try {
+                // it was cancelled while queued
+                if (!tryStart()) {
+                    return false;
+                }
+
+                try {
+                    complete(command.call());
+                } catch (Exception e) {
+                    completeExceptionally(e);
+                }
+                return true;
+            } finally {
+                releaseRunner();
+            }
+        }
+
+        // cancels the work only if it didn't start yet
+        boolean tryWithdraw() {
+            if (!super.tryCancel()) {
+                return false;
+            }
+            cancelledBeforeStart();
+            return true;
+        }
+
+        void bindRunner() {
+            runner = Thread.currentThread();
+        }
+
+        // must be called by the thread that bound itself as runner once it stops running the work
+        void releaseRunner() {
+            if (RUNNER.getAndSet(this, null) == null) {
+                // a canceller took us and is interrupting, wait for it so that the interrupt doesn't leak
+                // into whatever this thread runs next. it's only an interrupt away, unless it was descheduled
+                // in between, then give it the processor instead of burning it
+                for (int spins = 0; !isRunnerInterrupted; spins++) {
+                    if (spins < RELEASE_SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                Thread.interrupted();
+            }
+        }
+
+        // for work that has to know when its command will never run, runs once it's cancelled before starting
+        void cancelledBeforeStart() {
+        }
+
+        @Override
+        public boolean tryCancel() {
+            if (super.tryCancel()) {
+                cancelledBeforeStart();
+            } else if (!tryCancelRunning()) {
+                return false;
+            }
+
+            // running, stop it
+            Thread observedRunner = RUNNER.getAndSet(this, null);
+            if (observedRunner != null) {
+                observedRunner.interrupt();
+                isRunnerInterrupted = true;
+            }
+
+            // still queued, give its spot back
+            SimpleThreadPoolExecutor executor = queuedIn;
+            if (executor != null) {
+                executor.unlinkQueuedWork(this);
+            }
+            return true;
+        }
+    }
+
+    private static class ScheduledWork<T> extends Work<T> {
+
+        private volatile TimerWheel.Timer timer;
+
+        ScheduledWork(Callable<T> command) {
+            super(command);
+        }
+
+        @Override
+        public boolean tryCancel() {
+            if (!super.tryCancel()) {
+                return false;
+            }
+
+            // not due yet, free its spot in the wheel
+            TimerWheel.Timer observedTimer = timer;
+            if (observedTimer != null) {
+                observedTimer.cancel();
+            }
+            return true;
+        }
+    }
+
+    // submitted once per period, it's never started so that it can be cancelled between runs
+    private final class PeriodicWork extends Work<Void> {
+
+        private final Runnable command;
+        private final int period;
+        private long nextDeadline;
+        private volatile TimerWheel.Timer timer;
+
+        PeriodicWork(Runnable command, int period, long firstDeadline) {
+            super(null);
+            this.command = command;
+            this.period = period;
+            this.nextDeadline = firstDeadline;
+        }
+
+        @Override
+        boolean run() {
+            bindRunner();
+
+            try {
+                if (isComplete()) {
+                    return false;
+                }
+
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    completeExceptionally(e);
+                    return true;
+                }
+            } finally {
+                releaseRunner();
+            }
+
+            nextDeadline += period;
+            try {
+                scheduleNext();
+            } catch (RejectedExecutionException e) {
+                tryCancel();
+            }
+            return true;
+        }
+
+        void scheduleNext() {
+            timer = addTimer(() -> submitScheduled(this), Timeouts.remaining(nextDeadline));
+
+            // cancelled before the timer was set
+            if (isComplete()) {
+                timer.cancel();
+            }
+        }
+
+        @Override
+        public boolean tryCancel() {
+            if (!super.tryCancel()) {
+                return false;
+            }
+
+            TimerWheel.Timer observedTimer = timer;
+            if (observedTimer != null) {
+                observedTimer.cancel();
+            }
+            return true;
+        }
+    }
+
+    // one of invokeAny's commands, one that is cancelled before it runs, dropped from a full queue for
+    // instance, counts as failed, otherwise the group would never be complete if all the others failed
+    private static class AnyWork<T> extends Work<T> {
+
+        private final FirstResult<T> firstResult;
 
-        private final Runnable work;
+        AnyWork(Callable<T> command, FirstResult<T> firstResult) {
+            super(command);
+            this.firstResult = firstResult;
+        }
 
-        Work(Runnable work) {
-            this.work = work;
+        @Override
+        void cancelledBeforeStart() {
+            firstResult.failed(null);
         }
     }
 
-    private static class Request {
-        private boolean isDone = false;
-        private final Condition condition;
+    // completed by the first of a group of tasks to succeed, or by the last one to fail with the last exception
+    // that was thrown
+    private static class FirstResult<T> extends CompletionHandle<T> {
+
+        private final AtomicInteger remainingTasks;
+        // written before remainingTasks is decremented, so the last one to fail sees every earlier one
+        private volatile Exception lastException;
 
-        Request(Lock monitor) {
-            this.condition = monitor.newCondition();
+        FirstResult(int nOfTasks) {
+            this.remainingTasks = new AtomicInteger(nOfTasks);
+        }
+
+        void succeeded(T value) {
+            complete(value);
+        }
+
+        // null exception for a task that never ran
+        void failed(Exception exception) {
+            if (exception != null) {
+                lastException = exception;
+            }
+
+            if (remainingTasks.decrementAndGet() == 0) {
+                Exception observedException = lastException;
+                completeExceptionally(observedException != null ? observedException : new CancellationException());
+            }
         }
     }
 }
@@ -0,0 +1,7 @@
+package synchronizers;
+
+// What a SimpleThreadPoolExecutor exposes through JMX once registered
+public interface SimpleThreadPoolExecutorMXBean {
+    int getPoolSize();
+    ExecutorMetrics getMetrics();
+}
@@ -0,0 +1,193 @@
+package synchronizers;
+
+import utils.LockFreeDualQueue;
+import utils.Timeouts;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// TransferQueue split in lanes so that many producers don't all contend for the same lock or tail.
+// each thread has a home lane, producers only enqueue there and consumers look there first before stealing
+// from the other lanes. consumers that find every lane empty wait on monitor, which producers only acquire
+// when someone is waiting.
+//
+// ordering: messages enqueued by the same thread are taken in the order they were enqueued, there is no order
+// between messages of different threads, a message may be taken before an older one sitting in another lane
+public class StripedTransferQueue<E> {
+
+    private static class Message<E> {
+        private final E value;
+        private volatile boolean isTaken = false;
+        // transferring thread waiting for the message to be taken
+        private volatile Thread waiter;
+
+        Message(E value) {
+            this.value = value;
+        }
+    }
+
+    private final LockFreeDualQueue<Message<E>>[] lanes;
+    private final int mask;
+    private final AtomicInteger waitingConsumersCounter = new AtomicInteger(0);
+    private final ReentrantLock monitor = new ReentrantLock();
+    private final Condition condition = monitor.newCondition();
+
+    public StripedTransferQueue() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StripedTransferQueue(int nOfLanes) {
+        if (nOfLanes <= 0) {
+            throw new IllegalArgumentException("number of lanes must be positive");
+        }
+
+        // power of two so that picking a lane is a mask
+        int size = 1;
+        while (size < nOfLanes) {
+            size <<= 1;
+        }
+        lanes = new LockFreeDualQueue[size];
+        for (int i = 0; i < size; i++) {
+            lanes[i] = new LockFreeDualQueue<>();
+        }
+        mask = size - 1;
+    }
+
+    // Non blocking
+    public void put(E message) {
+        enqueue(new Message<>(message));
+    }
+
+    // waits until a consumer takes the message, a message that isn't taken before the timeout stays in the queue
+    public boolean transfer(E message, long timeout) throws InterruptedException {
+        Message<E> transferred = new Message<>(message);
+        enqueue(transferred);
+
+        // check if it's supposed to wait
+        if (Timeouts.noWait(timeout)) {
+            return transferred.isTaken;
+        }
+
+        long limit = Timeouts.start(timeout);
+        transferred.waiter = Thread.currentThread();
+
+        try {
+            while (!transferred.isTaken) {
+                long remaining = Timeouts.remaining(limit);
+                if (Timeouts.isTimeout(remaining)) {
+                    return false;
+                }
+
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
+
+                if (Thread.interrupted()) {
+                    if (transferred.isTaken) {
+                        // couldn't give up because the message was already taken
+                        Thread.currentThread().interrupt();
+                        return true;
+                    }
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        } finally {
+            transferred.waiter = null;
+        }
+    }
+
+    public E take(int timeout) throws InterruptedException {
+
+        // easy path
+        Message<E> message = poll();
+        if (message != null) {
+            return message.value;
+        }
+
+        // check if it's supposed to wait
+        if (Timeouts.noWait(timeout)) {
+            return null;
+        }
+
+        monitor.lock();
+
+        try {
+            // producers write their lane before reading the counter and we increment it before going through
+            // the lanes again, so either they see us waiting or we see their message
+            waitingConsumersCounter.incrementAndGet();
+
+            // prepare wait
+            long limit = Timeouts.start(timeout);
+            long remaining = Timeouts.remaining(limit);
+
+            while (true) {
+                message = poll();
+                if (message != null) {
+                    return message.value;
+                }
+
+                // check if timeout has ended
+                if (Timeouts.isTimeout(remaining)) {
+                    return null;
+                }
+
+                try {
+                    condition.await(remaining, TimeUnit.MILLISECONDS);
+
+                } catch (InterruptedException e) {
+                    // give up, let someone else have the message we may have been signalled for
+                    condition.signal();
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+
+                remaining = Timeouts.remaining(limit);
+            }
+        } finally {
+            waitingConsumersCounter.decrementAndGet();
+            monitor.unlock();
+        }
+    }
+
+    private void enqueue(Message<E> message) {
+        lanes[homeLane()].put(message);
+
+        if (waitingConsumersCounter.get() != 0) {
+            monitor.lock();
+
+            try {
+                condition.signal();
+            } finally {
+                monitor.unlock();
+            }
+        }
+    }
+
+    // home lane first and then steal from the others
+    private Message<E> poll() {
+        int home = homeLane();
+
+        for (int i = 0; i < lanes.length; i++) {
+            Message<E> message = lanes[(home + i) & mask].poll();
+            if (message != null) {
+                message.isTaken = true;
+                Thread waiter = message.waiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private int homeLane() {
+        // spread the thread ids, consecutive ids would otherwise share low bits with their neighbours' lanes
+        long id = Thread.currentThread().threadId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
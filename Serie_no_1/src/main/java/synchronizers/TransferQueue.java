@@ -1,106 +1,313 @@
 package synchronizers;
 
+import utils.Journal;
 import utils.NodeLinkedList;
+import utils.TimerWheel;
 import utils.Timeouts;
+import utils.WaitStrategy;
+import utils.Waiter;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 public class TransferQueue<E> {
 
-    private static class Request {
-        private boolean isDone = false;
-        private final Condition condition;
+    // takes and transfers that wait without a thread, only a timer and a node in a queue. like the requests of the
+    // C# TransferQueue, whoever acquires one, a message, its timeout or a cancel, is the only one that completes it,
+    // so a message handed to a request can't be lost to a timeout that fires at the same time
+    private class AsyncRequest<R> extends CompletableFuture<R> {
+        private final AtomicBoolean isAcquired = new AtomicBoolean(false);
+        private final NodeLinkedList<AsyncRequest<R>> requestQueue;
+        // both guarded by monitor, node is null once the request left requestQueue
+        private NodeLinkedList.Node<AsyncRequest<R>> node;
+        private TimerWheel.Timer timer;
+        // a transfer's message, so that only the take of that message completes it
+        private NodeLinkedList.Node<E> message;
 
-        Request(Lock monitor) {
-            this.condition = monitor.newCondition();
+        AsyncRequest(NodeLinkedList<AsyncRequest<R>> requestQueue) {
+            this.requestQueue = requestQueue;
+        }
+
+        boolean tryAcquire() {
+            return isAcquired.compareAndSet(false, true);
+        }
+
+        // must be called with monitor held
+        void unlink() {
+            if (node != null) {
+                requestQueue.remove(node);
+                node = null;
+            }
+        }
+
+        // completes with value if nothing else acquired the request first
+        void expire(R value) {
+            if (!tryAcquire()) {
+                return;
+            }
+
+            monitor.lock();
+
+            try {
+                unlink();
+            } finally {
+                monitor.unlock();
+            }
+
+            complete(value);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!tryAcquire()) {
+                // already fulfilled or about to be
+                return false;
+            }
+
+            monitor.lock();
+
+            try {
+                unlink();
+                timer.cancel();
+            } finally {
+                monitor.unlock();
+            }
+
+            return super.cancel(mayInterruptIfRunning);
         }
     }
 
     private final NodeLinkedList<E> dataQueue = new NodeLinkedList<>();
-    private final Lock monitor = new ReentrantLock();
-    private final NodeLinkedList<Request> takeRequestQueue = new NodeLinkedList<>();
-    private final NodeLinkedList<Request> transferRequestQueue = new NodeLinkedList<>();
+    private final ReentrantLock monitor = new ReentrantLock();
+    // threads waiting for a message and for their message to be taken, each one with its reusable waiter
+    private final NodeLinkedList<Waiter> takeRequestQueue = new NodeLinkedList<>();
+    private final NodeLinkedList<Waiter> transferRequestQueue = new NodeLinkedList<>();
+    private final NodeLinkedList<AsyncRequest<E>> asyncTakeRequestQueue = new NodeLinkedList<>();
+    private final NodeLinkedList<AsyncRequest<Boolean>> asyncTransferRequestQueue = new NodeLinkedList<>();
+    // asynchronous requests fulfilled while monitor is held, completed once it's released
+    private List<Runnable> completions = new ArrayList<>();
+    private final WaitStrategy waitStrategy;
+    // written under monitor, read without it by takes spinning for a message
+    private volatile int availableMessages = 0;
+    private final BooleanSupplier hasMessages = () -> availableMessages > 0;
+    // producers waiting for room in a bounded queue
+    private final Condition notFull = monitor.newCondition();
+    private final int capacity;
+    private int highWatermark = Integer.MAX_VALUE;
+    private int lowWatermark = 0;
+    private Runnable onHighWatermark;
+    private Runnable onLowWatermark;
+    private boolean isAboveHighWatermark = false;
+    // every message held is also in the journal until it's taken, null if the queue is not persistent
+    private final Journal<E> journal;
+
+    public TransferQueue() {
+        this(Integer.MAX_VALUE, WaitStrategy.park());
+    }
 
-    // Non blocking
+    public TransferQueue(WaitStrategy waitStrategy) {
+        this(Integer.MAX_VALUE, waitStrategy);
+    }
+
+    // at most capacity messages are held, whether they were put or transferred
+    public TransferQueue(int capacity) {
+        this(capacity, WaitStrategy.park());
+    }
+
+    public TransferQueue(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, waitStrategy, null);
+    }
+
+    // persistent queue, starts with the messages the journal holds from previous runs. those are delivered
+    // like put's messages, and may go over capacity, since whoever transferred them is gone
+    public TransferQueue(int capacity, WaitStrategy waitStrategy, Journal<E> journal) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+        this.journal = journal;
+
+        if (journal != null) {
+            for (E message : journal.recover()) {
+                dataQueue.push(message);
+                availableMessages++;
+            }
+        }
+    }
+
+    // onHighWatermark runs when the number of messages reaches highWatermark and onLowWatermark when it then drops
+    // to lowWatermark, so that producers can be throttled before the queue is full. they run while monitor is held
+    // by whoever crossed the watermark, so they must be quick and must not block
+    public void setWatermarks(int highWatermark, int lowWatermark, Runnable onHighWatermark,
+                              Runnable onLowWatermark) {
+        if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("low watermark must be between 0 and the high watermark");
+        }
+
+        monitor.lock();
+
+        try {
+            this.highWatermark = highWatermark;
+            this.lowWatermark = lowWatermark;
+            this.onHighWatermark = onHighWatermark;
+            this.onLowWatermark = onLowWatermark;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // Non blocking, throws IllegalStateException if the queue is full
     public void put(E message) {
-        // add to tail to make sure that take doesn't signal transfer while consuming put's messages instead of
-        // transfer's messages
-        dataQueue.push(message);
+        if (!offer(message)) {
+            throw new IllegalStateException("queue is full");
+        }
     }
 
-    public boolean transfer(E message, long timeout) throws InterruptedException {
+    // Non blocking, returns false if the queue is full
+    public boolean offer(E message) {
         monitor.lock();
 
         try {
+            if (availableMessages >= capacity) {
+                return false;
+            }
+
+            enqueue(message);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    // waits for room in the queue, returns false if there was none before the timeout
+    public boolean put(E message, long timeout) throws InterruptedException {
+        monitor.lock();
+
+        try {
+            if (availableMessages >= capacity && !awaitRoom(Timeouts.start(timeout))) {
+                return false;
+            }
+
+            enqueue(message);
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    // enqueues every message under a single acquisition of monitor, waking up to one waiting take per message.
+    // throws IllegalStateException, without enqueueing any of them, if there isn't room for all of them
+    public void putAll(Collection<? extends E> messages) {
+        monitor.lock();
+
+        try {
+            if (messages.size() > capacity - availableMessages) {
+                throw new IllegalStateException("not enough room in the queue");
+            }
+
+            for (E message : messages) {
+                pushMessage(message);
+                signalTakers();
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    // in a bounded queue the timeout also covers waiting for room, if there is none the message isn't enqueued
+    public boolean transfer(E message, long timeout) throws InterruptedException {
+        monitor.lock();
 
-            dataQueue.push(message);
+        try {
+            long limit = Timeouts.start(timeout);
 
-            // check if there is any take request ready to be fulfilled
-            if (takeRequestQueue.isNotEmpty()) {
-                NodeLinkedList.Node<Request> takeRequest = takeRequestQueue.pull();
-                takeRequest.value.isDone = true;
-                takeRequest.value.condition.signal();
+            if (availableMessages >= capacity && !awaitRoom(limit)) {
+                return false;
             }
 
             // check if it's supposed to wait
             if (Timeouts.noWait(timeout)) {
+                pushMessage(message);
+                signalTakers();
                 return false;
             }
 
-            // send my request
-            NodeLinkedList.Node<Request> transferRequest = transferRequestQueue.push(new Request(monitor));
-            // prepare wait
-            long limit = Timeouts.start(timeout);
+            // the request holds my message, so that only its take completes it. it's sent before signalling,
+            // an asynchronous take consumes the message right away
+            Waiter transferRequest = Waiter.current();
+            transferRequest.setItem(pushMessage(message));
+            transferRequestQueue.push(transferRequest.node());
+            signalTakers();
+
+            // the consumer usually shows up within microseconds, wait for it without leaving the processor
+            if (!waitStrategy.isParkOnly()) {
+                unlock();
+                try {
+                    waitStrategy.await(transferRequest, limit);
+                } finally {
+                    monitor.lock();
+                }
+
+                if (transferRequest.isDone()) {
+                    return true;
+                }
+            } else if (!completions.isEmpty()) {
+                // don't keep the asynchronous takes waiting while we wait
+                unlock();
+                monitor.lock();
+            }
+
             long remaining = Timeouts.remaining(limit);
 
             while (true) {
 
                 try {
-                    transferRequest.value.condition.await(remaining, TimeUnit.MILLISECONDS);
+                    transferRequest.await(monitor, remaining);
 
                 } catch (InterruptedException e) {
-                    if (transferRequest.value.isDone) {
+                    if (transferRequest.isDone()) {
                         // couldn't give up because request was already fulfilled
                         Thread.currentThread().interrupt();
                         return true;
                     }
-                    transferRequestQueue.remove(transferRequest);
+                    transferRequestQueue.remove(transferRequest.node());
                     throw e;
                 }
 
                 // check if the value has been consumed, if so the transfer was executed successfully
-                if (transferRequest.value.isDone) {
+                if (transferRequest.isDone()) {
                     return true;
                 }
 
                 // check if timeout has ended
                 remaining = Timeouts.remaining(limit);
                 if (Timeouts.isTimeout(remaining)) {
-                    transferRequestQueue.remove(transferRequest);
+                    transferRequestQueue.remove(transferRequest.node());
                     return false;
                 }
             }
         } finally {
-            monitor.unlock();
+            unlock();
         }
     }
 
     public E take(int timeout) throws InterruptedException {
+        spinForMessages(timeout);
         monitor.lock();
 
         try {
 
             // easy path
-            if (dataQueue.isNotEmpty() && transferRequestQueue.isEmpty()) {
-                // means that this data was sent by the put method so there is no need to signal
-                // or complete any request
-                return dataQueue.pull().value;
-            } else if (transferRequestQueue.isNotEmpty()){
-                completeRequest(transferRequestQueue);
-                return dataQueue.pull().value;
+            if (dataQueue.isNotEmpty()) {
+                return pullMessage();
             }
 
             // check if it's supposed to wait
@@ -108,7 +315,8 @@ public class TransferQueue<E> {
                 return null;
             }
 
-            NodeLinkedList.Node<Request> takeRequest = takeRequestQueue.push(new Request(monitor));
+            Waiter takeRequest = Waiter.current();
+            takeRequestQueue.push(takeRequest.node());
             // prepare wait
             long limit = Timeouts.start(timeout);
             long remaining = Timeouts.remaining(limit);
@@ -116,40 +324,287 @@ public class TransferQueue<E> {
             while (true) {
 
                 try {
-                    takeRequest.value.condition.await(remaining, TimeUnit.MILLISECONDS);
+                    takeRequest.await(monitor, remaining);
 
                 } catch (InterruptedException e) {
-                    if (takeRequest.value.isDone) {
+                    if (takeRequest.isDone() && dataQueue.isNotEmpty()) {
                         // couldn't give up because request was already fulfilled
                         Thread.currentThread().interrupt();
-                        completeRequest(transferRequestQueue);
-                        return dataQueue.pull().value;
+                        return pullMessage();
+                    }
+                    // a fulfilled request was already pulled from the queue
+                    if (!takeRequest.isDone()) {
+                        takeRequestQueue.remove(takeRequest.node());
                     }
-                    takeRequestQueue.remove(takeRequest);
                     throw e;
                 }
 
-                if (takeRequest.value.isDone) {
-                    completeRequest(transferRequestQueue);
-                    return dataQueue.pull().value;
+                if (takeRequest.isDone()) {
+                    if (dataQueue.isNotEmpty()) {
+                        return pullMessage();
+                    }
+                    // a take that didn't wait got to the message first, wait for the next one
+                    takeRequest = Waiter.current();
+                    takeRequestQueue.push(takeRequest.node());
                 }
 
                 // check if timeout has ended
                 remaining = Timeouts.remaining(limit);
                 if (Timeouts.isTimeout(remaining)) {
-                    takeRequestQueue.remove(takeRequest);
+                    takeRequestQueue.remove(takeRequest.node());
                     return null;
                 }
             }
 
         } finally {
-            monitor.unlock();
+            unlock();
         }
     }
 
-    private void completeRequest(NodeLinkedList<Request> listToCompleteRequest) {
-        NodeLinkedList.Node<Request> nodeToComplete = listToCompleteRequest.pull();
-        nodeToComplete.value.isDone = true;
-        nodeToComplete.value.condition.signal();
+    // waits like take for the first message and then takes up to max messages under the same acquisition
+    // of monitor, returns an empty list if no message arrived before the timeout
+    public List<E> takeBatch(int max, int timeout) throws InterruptedException {
+        List<E> batch = new ArrayList<>();
+        // before monitor is held, take can't spin while it is
+        spinForMessages(timeout);
+        monitor.lock();
+
+        try {
+            E first = take(timeout);
+            if (first != null) {
+                batch.add(first);
+                drainTo(batch, max - 1);
+            }
+            return batch;
+        } finally {
+            unlock();
+        }
+    }
+
+    // takes up to max messages without waiting, completing the transfers they satisfy, returns how many it took
+    public int drainTo(Collection<? super E> messages, int max) {
+        monitor.lock();
+
+        try {
+            int taken = 0;
+            while (taken < max && dataQueue.isNotEmpty()) {
+                messages.add(pullMessage());
+                taken++;
+            }
+            return taken;
+        } finally {
+            unlock();
+        }
+    }
+
+    // like take but without blocking a thread, the future completes with null if no message arrives before the
+    // timeout. cancelling it gives up on the message
+    public CompletableFuture<E> takeAsync(long timeout) {
+        monitor.lock();
+
+        try {
+
+            // easy path
+            if (dataQueue.isNotEmpty()) {
+                return CompletableFuture.completedFuture(pullMessage());
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return pushAsyncRequest(asyncTakeRequestQueue, timeout, null);
+        } finally {
+            unlock();
+        }
+    }
+
+    // like transfer but without blocking a thread, the future completes with true once the message is taken and
+    // with false if it isn't before the timeout, the message then stays in the queue. it doesn't wait for room,
+    // in a full queue it completes with false right away and the message isn't enqueued
+    public CompletableFuture<Boolean> transferAsync(E message, long timeout) {
+        monitor.lock();
+
+        try {
+            if (availableMessages >= capacity) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                pushMessage(message);
+                signalTakers();
+                return CompletableFuture.completedFuture(false);
+            }
+
+            // same as transfer, the request holds the message and is sent before signalling
+            NodeLinkedList.Node<E> messageNode = pushMessage(message);
+            AsyncRequest<Boolean> transferRequest = pushAsyncRequest(asyncTransferRequestQueue, timeout, false);
+            transferRequest.message = messageNode;
+            signalTakers();
+            return transferRequest;
+        } finally {
+            unlock();
+        }
+    }
+
+    // the producer usually shows up within microseconds, wait for it without leaving the processor. not while
+    // holding monitor, the producer would never get in and the spin would be for nothing
+    private void spinForMessages(int timeout) {
+        if (!waitStrategy.isParkOnly() && !Timeouts.noWait(timeout) && availableMessages == 0
+                && !monitor.isHeldByCurrentThread()) {
+            waitStrategy.await(hasMessages, Timeouts.start(timeout));
+        }
+    }
+
+    // must be called with monitor held and dataQueue not empty
+    private E pullMessage() {
+        // consumed in the journal first, if that fails the message stays in the queue
+        if (journal != null) {
+            journal.advance();
+        }
+
+        NodeLinkedList.Node<E> message = dataQueue.pull();
+        completeTransfer(message);
+        availableMessages--;
+        notFull.signal();
+
+        if (isAboveHighWatermark && availableMessages <= lowWatermark) {
+            isAboveHighWatermark = false;
+            if (onLowWatermark != null) {
+                onLowWatermark.run();
+            }
+        }
+
+        return message.value;
+    }
+
+    // must be called with monitor held
+    private void enqueue(E message) {
+        // add to tail to make sure that take doesn't signal transfer while consuming put's messages instead of
+        // transfer's messages
+        pushMessage(message);
+
+        // a take waiting for messages shouldn't have to wait for its timeout to see this one
+        signalTakers();
+    }
+
+    // must be called with monitor held after a message was pushed. a blocked take pulls the message itself,
+    // an asynchronous one is handed it
+    private void signalTakers() {
+        if (takeRequestQueue.isNotEmpty()) {
+            completeRequest(takeRequestQueue);
+            return;
+        }
+
+        while (asyncTakeRequestQueue.isNotEmpty()) {
+            AsyncRequest<E> takeRequest = asyncTakeRequestQueue.pull().value;
+            takeRequest.node = null;
+
+            // otherwise its timeout or cancel got to it first
+            if (takeRequest.tryAcquire()) {
+                takeRequest.timer.cancel();
+                E message = pullMessage();
+                completions.add(() -> takeRequest.complete(message));
+                return;
+            }
+        }
+    }
+
+    // must be called with monitor held
+    private NodeLinkedList.Node<E> pushMessage(E message) {
+        // appended under monitor so that the journal has the messages in the same order as dataQueue,
+        // if that fails the message isn't enqueued
+        if (journal != null) {
+            journal.append(message);
+        }
+        NodeLinkedList.Node<E> node = dataQueue.push(message);
+        availableMessages++;
+
+        if (!isAboveHighWatermark && availableMessages >= highWatermark) {
+            isAboveHighWatermark = true;
+            if (onHighWatermark != null) {
+                onHighWatermark.run();
+            }
+        }
+        return node;
+    }
+
+    // must be called with monitor held, waits until there is room for a message or the limit is reached
+    private boolean awaitRoom(long limit) throws InterruptedException {
+        long remaining = Timeouts.remaining(limit);
+
+        while (!Timeouts.isTimeout(remaining)) {
+            try {
+                notFull.await(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // giving up, let someone else have the room we may have been signalled for
+                notFull.signal();
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+
+            if (availableMessages < capacity) {
+                return true;
+            }
+            remaining = Timeouts.remaining(limit);
+        }
+        return false;
+    }
+
+    private void completeRequest(NodeLinkedList<Waiter> listToCompleteRequest) {
+        listToCompleteRequest.pull().value.complete();
+    }
+
+    // must be called with monitor held, completes the transfer that sent message, if it's still waiting. messages
+    // sent by put, or by transfers that gave up, have none. transfers wait in the order of their messages, so the
+    // message can only belong to the first one of each queue
+    private void completeTransfer(NodeLinkedList.Node<E> message) {
+        if (transferRequestQueue.isNotEmpty()) {
+            Object transferredMessage = transferRequestQueue.getHeadNode().value.getItem();
+            if (transferredMessage == message) {
+                completeRequest(transferRequestQueue);
+                return;
+            }
+        }
+
+        if (asyncTransferRequestQueue.isNotEmpty() && asyncTransferRequestQueue.getHeadNode().value.message == message) {
+            AsyncRequest<Boolean> transferRequest = asyncTransferRequestQueue.pull().value;
+            transferRequest.node = null;
+
+            // otherwise its timeout or cancel got to it first
+            if (transferRequest.tryAcquire()) {
+                transferRequest.timer.cancel();
+                completions.add(() -> transferRequest.complete(true));
+            }
+        }
+    }
+
+    // must be called with monitor held and no timer or cancel able to acquire the request yet
+    private <R> AsyncRequest<R> pushAsyncRequest(NodeLinkedList<AsyncRequest<R>> requestQueue, long timeout,
+                                                 R timeoutValue) {
+        AsyncRequest<R> request = new AsyncRequest<>(requestQueue);
+        request.node = requestQueue.push(request);
+        request.timer = AsyncTimeouts.timerWheel.schedule(
+                () -> AsyncTimeouts.expirer.execute(() -> request.expire(timeoutValue)), timeout);
+        return request;
+    }
+
+    // releases monitor and then completes the asynchronous requests fulfilled while it was held, so that their
+    // dependents don't run under it. a nested release leaves them for the outermost one
+    private void unlock() {
+        if (completions.isEmpty() || monitor.getHoldCount() > 1) {
+            monitor.unlock();
+            return;
+        }
+
+        List<Runnable> fulfilled = completions;
+        completions = new ArrayList<>();
+        monitor.unlock();
+
+        for (Runnable completion : fulfilled) {
+            completion.run();
+        }
     }
 }
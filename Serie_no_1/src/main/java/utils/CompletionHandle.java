@@ -0,0 +1,207 @@
+package utils;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+// Result whose completion is published through a volatile state, threads waiting on get are parked
+// in a lock free stack and unparked by whoever completes it
+public class CompletionHandle<T> implements Result<T> {
+
+    protected static final int NEW = 0;
+    protected static final int RUNNING = 1;
+    protected static final int COMPLETED = 2;
+    protected static final int FAILED = 3;
+    protected static final int CANCELLED = 4;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<CompletionHandle> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(CompletionHandle.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CompletionHandle, WaitNode> WAITERS =
+            AtomicReferenceFieldUpdater.newUpdater(CompletionHandle.class, WaitNode.class, "waiters");
+
+    private static class WaitNode {
+        private volatile Thread thread = Thread.currentThread();
+        private WaitNode next;
+    }
+
+    private volatile int state = NEW;
+    private volatile WaitNode waiters;
+    // written before state changes and only read after observing it, so the volatile state publishes them
+    private T value;
+    private Exception exceptionThrown;
+
+    protected int state() {
+        return state;
+    }
+
+    // claims the right to run the task, fails if it was cancelled before
+    protected boolean tryStart() {
+        return STATE.compareAndSet(this, NEW, RUNNING);
+    }
+
+    protected boolean complete(T value) {
+        this.value = value;
+        return finish(COMPLETED);
+    }
+
+    protected boolean completeExceptionally(Exception exception) {
+        this.exceptionThrown = exception;
+        return finish(FAILED);
+    }
+
+    @Override
+    public boolean isComplete() {
+        return state >= COMPLETED;
+    }
+
+    @Override
+    public boolean tryCancel() {
+        if (STATE.compareAndSet(this, NEW, CANCELLED)) {
+            releaseWaiters();
+            return true;
+        }
+        return false;
+    }
+
+    // cancels a task that already started, it's up to whoever runs it to notice and stop
+    protected boolean tryCancelRunning() {
+        if (STATE.compareAndSet(this, RUNNING, CANCELLED)) {
+            releaseWaiters();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Optional<T> get(int timeout) throws Exception {
+        int observedState = state;
+
+        if (observedState < COMPLETED) {
+
+            // check if it's supposed to wait
+            if (Timeouts.noWait(timeout)) {
+                return Optional.empty();
+            }
+
+            observedState = awaitCompletion(timeout);
+            if (observedState < COMPLETED) {
+                return Optional.empty();
+            }
+        }
+
+        if (observedState == FAILED) {
+            throw exceptionThrown;
+        }
+
+        return observedState == COMPLETED ? Optional.ofNullable(value) : Optional.empty();
+    }
+
+    // waits for completion without reporting the outcome, returns false if the timeout ended first
+    public boolean await(int timeout) throws InterruptedException {
+        if (isComplete()) {
+            return true;
+        }
+
+        // check if it's supposed to wait
+        if (Timeouts.noWait(timeout)) {
+            return false;
+        }
+
+        return awaitCompletion(timeout) >= COMPLETED;
+    }
+
+    private boolean finish(int finalState) {
+        int observedState;
+
+        do {
+            observedState = state;
+            if (observedState >= COMPLETED) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, observedState, finalState));
+
+        releaseWaiters();
+        return true;
+    }
+
+    private void releaseWaiters() {
+        for (WaitNode waiter = WAITERS.getAndSet(this, null); waiter != null; waiter = waiter.next) {
+            Thread thread = waiter.thread;
+            if (thread != null) {
+                waiter.thread = null;
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private int awaitCompletion(int timeout) throws InterruptedException {
+        WaitNode waitNode = new WaitNode();
+        long limit = Timeouts.start(timeout);
+
+        // push our node, giving up early if the handle completes in the meantime
+        do {
+            if (state >= COMPLETED) {
+                return state;
+            }
+            waitNode.next = waiters;
+        } while (!WAITERS.compareAndSet(this, waitNode.next, waitNode));
+
+        while (true) {
+            // completion either happened before the push, and we see it here, or after it and we get unparked
+            int observedState = state;
+            if (observedState >= COMPLETED) {
+                return observedState;
+            }
+
+            long remaining = Timeouts.remaining(limit);
+            if (Timeouts.isTimeout(remaining)) {
+                removeWaiter(waitNode);
+                return state;
+            }
+
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
+
+            if (Thread.interrupted()) {
+                if (state >= COMPLETED) {
+                    // couldn't give up because the result is already there
+                    Thread.currentThread().interrupt();
+                    return state;
+                }
+                removeWaiter(waitNode);
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    // unlinks every node abandoned by a timed out or interrupted waiter
+    private void removeWaiter(WaitNode waitNode) {
+        waitNode.thread = null;
+
+        retry:
+        while (true) {
+            WaitNode predecessor = null;
+            WaitNode next;
+
+            for (WaitNode current = waiters; current != null; current = next) {
+                next = current.next;
+
+                if (current.thread != null) {
+                    predecessor = current;
+                } else if (predecessor != null) {
+                    predecessor.next = next;
+                    // predecessor was abandoned as well while we were unlinking
+                    if (predecessor.thread == null) {
+                        continue retry;
+                    }
+                } else if (!WAITERS.compareAndSet(this, current, next)) {
+                    continue retry;
+                }
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package utils;
+
+// Map from int keys to values that doesn't box its keys nor allocates an entry per mapping, open addressing with
+// linear probing over a power of two table that doubles when it's half full. removals shift the following
+// entries back instead of leaving tombstones, so lookups never go through more than the entries that collide.
+// not thread safe
+public class IntHashMap<V> {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private int[] keys;
+    private V[] values;
+    private int mask;
+    private int size = 0;
+
+    public IntHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    public IntHashMap(int initialCapacity) {
+        int capacity = DEFAULT_INITIAL_CAPACITY;
+        while (capacity < initialCapacity * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public V get(int key) {
+        for (int i = index(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    // value must not be null, returns the value it replaced
+    public V put(int key, V value) {
+        int i = index(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (++size > values.length / 2) {
+            grow();
+        }
+        return null;
+    }
+
+    public V remove(int key) {
+        int i = index(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V removed = values[i];
+                shiftBack(i);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // fills the hole at i with the following entries that would otherwise no longer be found from their index
+    private void shiftBack(int hole) {
+        int i = hole;
+
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+
+            // distance from the entry's index to the hole and to where it is now
+            int index = index(keys[i]);
+            if (((hole - index) & mask) < ((i - index) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        int[] oldKeys = keys;
+        V[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = (V[]) new Object[oldValues.length * 2];
+        mask = values.length - 1;
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = index(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private int index(int key) {
+        // spread the keys, consecutive ones would otherwise fill consecutive slots and make long runs
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,310 @@
+package utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Append only log of messages kept in memory mapped segment files, with a read cursor saying how many of them
+// were consumed. appending and advancing only copy to mapped memory, which survives the process dying, and
+// the flusher forces the dirty pages to disk every fsyncInterval milliseconds so that many messages share one
+// fsync, a machine crash can lose what was written after the last one
+//
+// a record is its header, its length plus 1, followed by its bytes. a header of 0 is the end of the data (files
+// are zero filled), so that empty messages can be told from it, and a header of -1, or no room left for one,
+// means the records continue in the next segment.
+// the cursor is the segment number and the position in it packed in a single long, so it's written at once.
+// final because the constructor starts the flusher, which would otherwise see a subclass not yet initialized
+public final class Journal<E> {
+
+    public interface Codec<E> {
+        byte[] encode(E message);
+
+        E decode(byte[] bytes);
+    }
+
+    private static class Segment {
+        private final long number;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+
+        Segment(long number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int LENGTH_SIZE = Integer.BYTES;
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Lock monitor = new ReentrantLock();
+    private final Path directory;
+    private final Codec<E> codec;
+    private final int segmentSize;
+    private final long fsyncInterval;
+    // from the one being read to the one being written
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final MappedByteBuffer cursor;
+    private final List<E> unconsumed = new ArrayList<>();
+    private final Thread flusher;
+    private int readPosition;
+    private int writePosition;
+    private boolean isClosed = false;
+
+    // fsyncInterval of 0 forces every append and advance to disk before returning
+    public Journal(Path directory, Codec<E> codec, int segmentSize, long fsyncInterval) throws IOException {
+        if (segmentSize <= LENGTH_SIZE * 2 || fsyncInterval < 0) {
+            throw new IllegalArgumentException("segment too small or negative fsync interval");
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.fsyncInterval = fsyncInterval;
+        this.cursor = map(directory.resolve(CURSOR_FILE), Long.BYTES);
+
+        load();
+
+        // last, once everything the flusher touches is set
+        if (fsyncInterval > 0) {
+            flusher = new Thread(this::flushPeriodically, "journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    // messages appended and not consumed before the journal was opened, in the order they were appended.
+    // they are handed over once, later calls return an empty list
+    public List<E> recover() {
+        monitor.lock();
+
+        try {
+            List<E> recovered = new ArrayList<>(unconsumed);
+            unconsumed.clear();
+            return recovered;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    public void append(E message) {
+        byte[] bytes = codec.encode(message);
+        if (bytes.length > segmentSize - LENGTH_SIZE) {
+            throw new IllegalArgumentException("message doesn't fit in a segment");
+        }
+
+        monitor.lock();
+
+        try {
+            checkOpen();
+            if (writePosition + LENGTH_SIZE + bytes.length > segmentSize) {
+                roll();
+            }
+
+            MappedByteBuffer buffer = segments.getLast().buffer;
+            buffer.put(writePosition + LENGTH_SIZE, bytes);
+            // header goes last so that a record is never seen half written
+            buffer.putInt(writePosition, bytes.length + 1);
+            writePosition += LENGTH_SIZE + bytes.length;
+
+            if (fsyncInterval == 0) {
+                buffer.force();
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // marks the oldest unconsumed message as consumed, segments left behind are deleted
+    public void advance() {
+        monitor.lock();
+
+        try {
+            checkOpen();
+            skipEndOfSegment();
+
+            int header = segments.getFirst().buffer.getInt(readPosition);
+            if (header <= 0) {
+                throw new IllegalStateException("no message to consume");
+            }
+            readPosition += LENGTH_SIZE + header - 1;
+            skipEndOfSegment();
+
+            cursor.putLong(0, (segments.getFirst().number << 32) | readPosition);
+            if (fsyncInterval == 0) {
+                cursor.force();
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    public void flush() {
+        monitor.lock();
+
+        try {
+            if (isClosed) {
+                return;
+            }
+            segments.getLast().buffer.force();
+            cursor.force();
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    public void close() {
+        if (flusher != null) {
+            flusher.interrupt();
+        }
+        flush();
+
+        monitor.lock();
+
+        try {
+            isClosed = true;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // must be called with monitor held
+    private void roll() {
+        MappedByteBuffer buffer = segments.getLast().buffer;
+        if (writePosition + LENGTH_SIZE <= segmentSize) {
+            buffer.putInt(writePosition, END_OF_SEGMENT);
+        }
+        // a full segment is forced once instead of by every flush after it
+        buffer.force();
+
+        try {
+            segments.addLast(openSegment(segments.getLast().number + 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writePosition = 0;
+    }
+
+    // must be called with monitor held, moves the read position to the next segment if this one has no more
+    // records and is not the one being written
+    private void skipEndOfSegment() {
+        Segment segment = segments.getFirst();
+        if (segment == segments.getLast() || !isEndOfSegment(segment, readPosition)) {
+            return;
+        }
+
+        segments.removeFirst();
+        readPosition = 0;
+
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            // an old segment left behind is skipped by recovery
+        }
+    }
+
+    private boolean isEndOfSegment(Segment segment, int position) {
+        return position + LENGTH_SIZE > segmentSize || segment.buffer.getInt(position) == END_OF_SEGMENT;
+    }
+
+    private void load() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())), path);
+            }
+        }
+
+        long saved = cursor.getLong(0);
+        long readSegment = saved >>> 32;
+        readPosition = (int) saved;
+
+        // consumed before the last run ended but not deleted yet
+        for (Long number : files.headMap(readSegment).keySet()) {
+            Files.deleteIfExists(files.get(number));
+        }
+        files = new TreeMap<>(files.tailMap(readSegment));
+
+        if (files.isEmpty() || files.firstKey() != readSegment) {
+            readPosition = 0;
+        }
+        for (Long number : files.keySet()) {
+            segments.addLast(openSegment(number));
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(openSegment(readSegment));
+        }
+
+        // go through the records after the cursor to find the unconsumed ones and where to append
+        int position = readPosition;
+        Segment last = segments.getLast();
+        for (Segment segment : segments) {
+            while (!isEndOfSegment(segment, position)) {
+                int header = segment.buffer.getInt(position);
+                int length = header - 1;
+                if (header <= 0 || position + LENGTH_SIZE + length > segmentSize) {
+                    break;
+                }
+
+                byte[] bytes = new byte[length];
+                segment.buffer.get(position + LENGTH_SIZE, bytes);
+                unconsumed.add(codec.decode(bytes));
+                position += LENGTH_SIZE + length;
+            }
+
+            if (segment != last) {
+                position = 0;
+            }
+        }
+        writePosition = position;
+    }
+
+    private Segment openSegment(long number) throws IOException {
+        Path path = directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+        return new Segment(number, path, map(path, segmentSize));
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void checkOpen() {
+        if (isClosed) {
+            throw new IllegalStateException("journal is closed");
+        }
+    }
+
+    private void flushPeriodically() {
+        try {
+            while (true) {
+                Thread.sleep(fsyncInterval);
+                flush();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package utils;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of durations in nanoseconds with one bucket per power of two, recording only increments striped
+// counters so that threads recording at the same time neither allocate nor contend on a single cache line.
+// percentiles are reported as the upper bound of the bucket they fall in, so they are at most 2x off
+public class LatencyHistogram {
+
+    // bucket i holds durations in [2^(i-1), 2^i), bucket 0 holds 0
+    private static final int N_OF_BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[N_OF_BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < N_OF_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        buckets[Math.min(N_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(duration))].increment();
+        total.add(duration);
+        max.accumulate(duration);
+    }
+
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long mean() {
+        long count = count();
+        return count == 0 ? 0 : total.sum() / count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    // not atomic with concurrent recording, which can only shift the result by the values being recorded
+    public long percentile(double percentile) {
+        long[] counts = new long[N_OF_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < N_OF_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < N_OF_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max(), i == 0 ? 0 : (1L << i) - 1);
+            }
+        }
+        return max();
+    }
+}
@@ -0,0 +1,311 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+// Lock-free dual queue (Scherer and Scott) where both consumers and producers can wait for the other side.
+// the queue holds nodes of a single mode at a time, data or requests, and an arriving operation of the other
+// mode is matched with the oldest unmatched node by a cas on that node's item, after which its waiter is unparked
+public class LockFreeDualQueue<T> {
+
+    private static final int NOW = 0;
+    private static final int ASYNC = 1;
+    private static final int TIMED = 2;
+    // timed, but the value stays enqueued when the wait ends without a match
+    private static final int TIMED_KEEP = 3;
+
+    private static final AtomicReferenceFieldUpdater<Node, Object> ITEM =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "item");
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    // data nodes hold their item until it's taken and then null, requests hold null until they get an item.
+    // a cancelled node holds itself
+    static final class Node {
+        final boolean isData;
+        volatile Object item;
+        volatile Node next;
+        volatile Thread waiter;
+
+        Node(Object item, boolean isData) {
+            this.item = item;
+            this.isData = isData;
+        }
+
+        boolean isMatched() {
+            Object observedItem = item;
+            return observedItem == this || (observedItem == null) == isData;
+        }
+
+        boolean isUnmatchedOfMode(boolean isData) {
+            return this.isData == isData && !isMatched();
+        }
+    }
+
+    // head is always a matched node, tail may fall behind
+    private final AtomicReference<Node> head;
+    private final AtomicReference<Node> tail;
+    private volatile boolean isClosed = false;
+
+    public LockFreeDualQueue() {
+        Node sentinel = new Node(null, true);
+        head = new AtomicReference<>(sentinel);
+        tail = new AtomicReference<>(sentinel);
+    }
+
+    // enqueues the value, or hands it to a waiting consumer, without waiting
+    public void put(T value) {
+        try {
+            xfer(checkNotNull(value), true, ASYNC, 0, null);
+        } catch (InterruptedException e) {
+            // never waits
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // hands the value to a waiting consumer, if there is none the value is not enqueued
+    public boolean tryTransfer(T value) {
+        try {
+            return xfer(checkNotNull(value), true, NOW, 0, null) == null;
+        } catch (InterruptedException e) {
+            // never waits
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // enqueues the value and waits until a consumer takes it, returns false if nobody did before the timeout
+    // in which case the value is withdrawn from the queue
+    public boolean transfer(T value, long timeout) throws InterruptedException {
+        checkNotNull(value);
+        return xfer(value, true, Timeouts.noWait(timeout) ? NOW : TIMED, timeout, null) == null;
+    }
+
+    // enqueues the value and waits until a consumer takes it, returns false if nobody did before the timeout
+    // in which case the value stays enqueued as if it had been put
+    public boolean putAndAwaitTake(T value, long timeout) throws InterruptedException {
+        checkNotNull(value);
+        return xfer(value, true, Timeouts.noWait(timeout) ? ASYNC : TIMED_KEEP, timeout, null) == null;
+    }
+
+    public T poll() {
+        try {
+            return take(0);
+        } catch (InterruptedException e) {
+            // never waits
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public T take(long timeout) throws InterruptedException {
+        return take(timeout, null);
+    }
+
+    // like take, but once the request is enqueued, where producers can see it, and before waiting, giveUp is
+    // checked. if it says that the caller has something else to do after all, the request is withdrawn and null
+    // returned, unless a value got to it first. for consumers that also wait for work from elsewhere, so that
+    // work published there while they weren't enqueued yet isn't missed
+    @SuppressWarnings("unchecked")
+    public T take(long timeout, BooleanSupplier giveUp) throws InterruptedException {
+        return (T) xfer(null, false, Timeouts.noWait(timeout) ? NOW : TIMED, timeout, giveUp);
+    }
+
+    public boolean hasData() {
+        Node first = firstUnmatched();
+        return first != null && first.isData;
+    }
+
+    public boolean hasWaitingConsumer() {
+        Node first = firstUnmatched();
+        return first != null && !first.isData;
+    }
+
+    // from now on nobody waits, whoever is already waiting gives up as if its timeout had ended
+    public void close() {
+        isClosed = true;
+
+        for (Node node = head.get(); node != null; node = node.next) {
+            Thread waiter = node.waiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    private static <T> T checkNotNull(T value) {
+        if (value == null) {
+            throw new NullPointerException("null is what requests hold, it can't be enqueued");
+        }
+        return value;
+    }
+
+    private Node firstUnmatched() {
+        for (Node node = head.get().next; node != null; node = node.next) {
+            if (!node.isMatched()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    // returns the item that was taken for requests, for data null if it was taken and the value otherwise
+    private Object xfer(Object value, boolean haveData, int how, long timeout, BooleanSupplier giveUp)
+            throws InterruptedException {
+        Node node = null;
+
+        while (true) {
+
+            // try to match the oldest unmatched node, if it's of the other mode
+            Node observedHead = head.get();
+            Node lastMatched = observedHead;
+
+            for (Node current = observedHead.next; current != null; current = current.next) {
+                Object item = current.item;
+
+                if (item != current && (item != null) == current.isData) {
+                    // unmatched node of the same mode, we'll have to wait behind it
+                    if (current.isData == haveData) {
+                        break;
+                    }
+
+                    if (ITEM.compareAndSet(current, item, value)) {
+                        // the matched node is the new sentinel
+                        head.compareAndSet(observedHead, current);
+                        LockSupport.unpark(current.waiter);
+                        return haveData ? null : item;
+                    }
+                }
+
+                // matched or cancelled, possibly by whoever beat us to it
+                lastMatched = current;
+            }
+
+            // help getting rid of the matched prefix
+            if (lastMatched != observedHead) {
+                head.compareAndSet(observedHead, lastMatched);
+            }
+
+            if (how == NOW) {
+                return value;
+            }
+
+            if (node == null) {
+                node = new Node(value, haveData);
+            }
+
+            // a node of the other mode was enqueued after we looked, go match it
+            if (!append(node, haveData)) {
+                continue;
+            }
+
+            // a node of the other mode may have been enqueued before ours while we were not looking,
+            // give up our spot and go match it
+            if (hasUnmatchedOfOtherModeBefore(node, haveData)) {
+                if (ITEM.compareAndSet(node, value, node)) {
+                    node = null;
+                    continue;
+                }
+                // couldn't give up because we were already matched
+                return node.item;
+            }
+
+            if (how == ASYNC) {
+                return value;
+            }
+
+            if (giveUp != null && giveUp.getAsBoolean()) {
+                if (ITEM.compareAndSet(node, value, node)) {
+                    return value;
+                }
+                // couldn't give up because we were already matched
+                return node.item;
+            }
+
+            return awaitMatch(node, value, timeout, how == TIMED_KEEP);
+        }
+    }
+
+    private boolean append(Node node, boolean haveData) {
+        while (true) {
+            Node observedTail = tail.get();
+            Node observedTailNext = observedTail.next;
+
+            // tail falling behind
+            if (observedTailNext != null) {
+                tail.compareAndSet(observedTail, observedTailNext);
+                continue;
+            }
+
+            if (observedTail.isUnmatchedOfMode(!haveData)) {
+                return false;
+            }
+
+            if (NEXT.compareAndSet(observedTail, null, node)) {
+                tail.compareAndSet(observedTail, node);
+                return true;
+            }
+        }
+    }
+
+    // only the first unmatched node matters, if one of the other mode sits behind an unmatched node of our mode
+    // then it was appended after it and is the one that has to give up its spot
+    private boolean hasUnmatchedOfOtherModeBefore(Node node, boolean haveData) {
+        for (Node current = head.get().next; current != null && current != node; current = current.next) {
+            if (!current.isMatched()) {
+                return current.isData != haveData;
+            }
+        }
+        return false;
+    }
+
+    private Object awaitMatch(Node node, Object value, long timeout, boolean keepEnqueued) throws InterruptedException {
+        long limit = Timeouts.start(timeout);
+
+        while (true) {
+            Object item = node.item;
+
+            // matched, data nodes now hold null and requests the taken item
+            if (item != value) {
+                return item;
+            }
+
+            boolean interrupted = Thread.interrupted();
+            long remaining = Timeouts.remaining(limit);
+
+            if (interrupted || isClosed || Timeouts.isTimeout(remaining)) {
+                // stop waiting, whoever matches the node later has no one to unpark
+                if (keepEnqueued) {
+                    node.waiter = null;
+                    if (interrupted) {
+                        throw new InterruptedException();
+                    }
+                    return value;
+                }
+
+                // give up
+                if (ITEM.compareAndSet(node, value, node)) {
+                    if (interrupted) {
+                        throw new InterruptedException();
+                    }
+                    return value;
+                }
+
+                // couldn't give up because we were already matched
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                continue;
+            }
+
+            // publish who is to be unparked and look at item once more before parking
+            if (node.waiter == null) {
+                node.waiter = Thread.currentThread();
+                continue;
+            }
+
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
+        }
+    }
+}
@@ -25,7 +25,11 @@ public class NodeLinkedList<T> {
     }
 
     public Node<T> push(T value) {
-        Node<T> node = new Node<T>(value);
+        return push(new Node<T>(value));
+    }
+
+    // links a node that isn't in any list, so that nodes owned by their values can be reused
+    public Node<T> push(Node<T> node) {
         Node<T> tail = head.prev;
         node.prev = tail;
         node.next = head;
@@ -63,11 +67,32 @@ public class NodeLinkedList<T> {
         return node;
     }
 
+    public Node<T> pullTail() {
+        if(isEmpty()) {
+            throw new IllegalStateException("cannot pull from an empty list");
+        }
+        Node<T> node = head.prev;
+        head.prev = node.prev;
+        node.prev.next = head;
+        return node;
+    }
+
     public void remove (Node<T> node) {
         node.prev.next = node.next;
         node.next.prev = node.prev;
     }
 
+    // pulls the first node whose value matches, null if there is none
+    public Node<T> pullFirst(Predicate<T> pred) {
+        for (Node<T> node = head.next; node != head; node = node.next) {
+            if (pred.test(node.value)) {
+                remove(node);
+                return node;
+            }
+        }
+        return null;
+    }
+
     public Node<T> pullSpecificNodeAndReturn(Predicate<T> pred, Node<T> curr, Node<T> firstNodeToSearch) {
 
         if (firstNodeToSearch.value != null && pred.test(firstNodeToSearch.value) && firstNodeToSearch != curr) {
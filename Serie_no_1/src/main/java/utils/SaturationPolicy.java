@@ -0,0 +1,6 @@
+package utils;
+
+// what a bounded executor does with work submitted while its work queue is full
+public enum SaturationPolicy {
+    block, callerRuns, reject, dropOldest
+}
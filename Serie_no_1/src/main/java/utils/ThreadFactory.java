@@ -9,4 +9,8 @@ public class ThreadFactory {
         return new WorkerThread(r);
     }
 
+    public static Thread newVirtualThread(Runnable r) {
+        return Thread.ofVirtual().unstarted(r);
+    }
+
 }
@@ -0,0 +1,182 @@
+package utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Hashed timer wheel, every timer lands in the bucket of the tick its deadline falls in and remembers how many
+// full turns of the wheel are left before it's due. a single ticker thread goes through one bucket per tick,
+// so scheduling and cancelling are O(1) no matter how many timers are pending
+public class TimerWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimerWheel.class);
+
+    public class Timer {
+
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private NodeLinkedList<Timer> bucket;
+        private NodeLinkedList.Node<Timer> node;
+
+        Timer(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        // returns false if the timer already expired or was cancelled
+        public boolean cancel() {
+            monitor.lock();
+
+            try {
+                if (node == null) {
+                    return false;
+                }
+                bucket.remove(node);
+                node = null;
+                return true;
+            } finally {
+                monitor.unlock();
+            }
+        }
+    }
+
+    private final Lock monitor = new ReentrantLock();
+    private final long tickDuration;
+    private final int mask;
+    private final NodeLinkedList<Timer>[] wheel;
+    private final long startTime = System.currentTimeMillis();
+    private final Thread ticker;
+    // next tick to be processed
+    private long tick = 0;
+    private boolean isStopped = false;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tickDuration, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("tick duration must be positive and wheel size a power of two");
+        }
+
+        this.tickDuration = tickDuration;
+        this.mask = wheelSize - 1;
+        this.wheel = new NodeLinkedList[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new NodeLinkedList<>();
+        }
+
+        ticker = new Thread(this::tick, "timer-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    // task runs on the ticker thread, it should only hand work to someone else
+    public Timer schedule(Runnable task, long delay) {
+        Timer timer = new Timer(task, Timeouts.start(Math.max(0, delay)));
+
+        monitor.lock();
+
+        try {
+            if (isStopped) {
+                throw new IllegalStateException("timer wheel was stopped");
+            }
+
+            // tick whose end comes after the deadline, never one that was already processed
+            long targetTick = Math.max(tick, (timer.deadline - startTime + tickDuration - 1) / tickDuration);
+            timer.remainingRounds = (targetTick - tick) / wheel.length;
+            timer.bucket = wheel[(int) (targetTick & mask)];
+            timer.node = timer.bucket.push(timer);
+            return timer;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    // stops the ticker and returns the tasks of the timers that didn't expire
+    public List<Runnable> stop() {
+        List<Runnable> pending = new ArrayList<>();
+
+        monitor.lock();
+
+        try {
+            isStopped = true;
+            for (NodeLinkedList<Timer> bucket : wheel) {
+                while (bucket.isNotEmpty()) {
+                    Timer timer = bucket.pull().value;
+                    timer.node = null;
+                    pending.add(timer.task);
+                }
+            }
+        } finally {
+            monitor.unlock();
+        }
+
+        ticker.interrupt();
+        return pending;
+    }
+
+    private void tick() {
+        List<Runnable> expired = new ArrayList<>();
+
+        while (true) {
+
+            // wait for the end of the current tick
+            long limit = startTime + (tick + 1) * tickDuration;
+            long remaining = Timeouts.remaining(limit);
+            while (!Timeouts.isTimeout(remaining)) {
+                try {
+                    Thread.sleep(remaining);
+                } catch (InterruptedException e) {
+                    // only stop interrupts the ticker
+                    return;
+                }
+                remaining = Timeouts.remaining(limit);
+            }
+
+            monitor.lock();
+
+            try {
+                if (isStopped) {
+                    return;
+                }
+
+                NodeLinkedList<Timer> bucket = wheel[(int) (tick & mask)];
+                NodeLinkedList.Node<Timer> node = bucket.isEmpty() ? null : bucket.getHeadNode();
+                while (node != null && node.value != null) {
+                    NodeLinkedList.Node<Timer> next = node.next;
+                    Timer timer = node.value;
+
+                    if (timer.remainingRounds <= 0) {
+                        bucket.remove(node);
+                        timer.node = null;
+                        expired.add(timer.task);
+                    } else {
+                        timer.remainingRounds--;
+                    }
+                    node = next;
+                }
+                tick++;
+            } finally {
+                monitor.unlock();
+            }
+
+            // run the tasks without holding monitor so that they can schedule and cancel timers. a task that
+            // throws must not take the ticker, and every other timer, down with it
+            for (Runnable task : expired) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("timer task failed", e);
+                }
+            }
+            expired.clear();
+        }
+    }
+}
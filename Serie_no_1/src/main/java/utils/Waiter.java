@@ -0,0 +1,105 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// What a thread leaves in a synchronizer's queue while it waits, in place of a request with its own Condition.
+// every thread has a single one, together with the node that links it, that it reuses for every wait, so waiting
+// allocates nothing. it's woken directly with unpark instead of going through a condition queue.
+// a thread only waits in one place at a time and a waiter is only completed while it's in a queue, under the
+// same monitor that the owner removes it with, so a waiter is never completed after its wait ended
+public final class Waiter implements BooleanSupplier {
+
+    private static final ThreadLocal<Waiter> waiters = ThreadLocal.withInitial(Waiter::new);
+
+    private final Thread thread = Thread.currentThread();
+    private final NodeLinkedList.Node<Waiter> node = new NodeLinkedList.Node<>(this);
+    // volatile so that it can be spun on without holding the monitor
+    private volatile boolean isDone;
+    // what the waiter is waiting with or for, for synchronizers that hand something over or match by key
+    private int key;
+    private Object item;
+
+    private Waiter() {
+    }
+
+    // the current thread's waiter, ready for a new wait
+    public static Waiter current() {
+        Waiter waiter = waiters.get();
+        waiter.isDone = false;
+        waiter.key = 0;
+        waiter.item = null;
+        return waiter;
+    }
+
+    public NodeLinkedList.Node<Waiter> node() {
+        return node;
+    }
+
+    public boolean isDone() {
+        return isDone;
+    }
+
+    // lets the waiter be used as the condition of a WaitStrategy without allocating a lambda
+    @Override
+    public boolean getAsBoolean() {
+        return isDone;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    public void setKey(int key) {
+        this.key = key;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> V getItem() {
+        return (V) item;
+    }
+
+    public void setItem(Object item) {
+        this.item = item;
+    }
+
+    // item is written before isDone so that the owner sees it once it sees isDone
+    public void complete(Object item) {
+        this.item = item;
+        complete();
+    }
+
+    public void complete() {
+        isDone = true;
+        LockSupport.unpark(thread);
+    }
+
+    // like Condition.await, releases monitor, however many times it's held, until the waiter is completed,
+    // the timeout ends or the thread is interrupted, and acquires it back before returning. it can also return
+    // for no reason, callers check isDone and the timeout again
+    public void await(ReentrantLock monitor, long timeout) throws InterruptedException {
+        long limit = Timeouts.start(timeout);
+        int holds = monitor.getHoldCount();
+        for (int i = 0; i < holds; i++) {
+            monitor.unlock();
+        }
+
+        try {
+            long remaining = timeout;
+            while (!isDone && !Thread.currentThread().isInterrupted() && !Timeouts.isTimeout(remaining)) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
+                remaining = Timeouts.remaining(limit);
+            }
+        } finally {
+            for (int i = 0; i < holds; i++) {
+                monitor.lock();
+            }
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
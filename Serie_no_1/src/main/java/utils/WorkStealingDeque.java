@@ -0,0 +1,95 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Chase-Lev work stealing deque
+// the owner thread pushes and pops at the bottom, any other thread steals from the top
+public class WorkStealingDeque<T> {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final AtomicLong top = new AtomicLong(0);
+    private volatile long bottom = 0;
+    private volatile AtomicReferenceArray<T> array = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    // owner only
+    public void push(T value) {
+        long observedBottom = bottom;
+        long observedTop = top.get();
+        AtomicReferenceArray<T> observedArray = array;
+
+        if (observedBottom - observedTop >= observedArray.length() - 1) {
+            observedArray = grow(observedArray, observedBottom, observedTop);
+            array = observedArray;
+        }
+
+        observedArray.set((int) (observedBottom & (observedArray.length() - 1)), value);
+        bottom = observedBottom + 1;
+    }
+
+    // owner only, returns the most recently pushed value or null if the deque is empty
+    public T pop() {
+        long observedBottom = bottom - 1;
+        AtomicReferenceArray<T> observedArray = array;
+        // publish the bottom before reading top so that thieves and the owner can't both take the last value
+        bottom = observedBottom;
+        long observedTop = top.get();
+
+        if (observedTop > observedBottom) {
+            // deque was empty
+            bottom = observedBottom + 1;
+            return null;
+        }
+
+        int index = (int) (observedBottom & (observedArray.length() - 1));
+        T value = observedArray.get(index);
+
+        if (observedTop == observedBottom) {
+            // last value, race against thieves for it
+            if (!top.compareAndSet(observedTop, observedTop + 1)) {
+                value = null;
+            }
+            bottom = observedBottom + 1;
+            return value;
+        }
+
+        // no thief can reach this slot so it's safe to release the reference
+        observedArray.set(index, null);
+        return value;
+    }
+
+    // any thread, returns the least recently pushed value or null if the deque is empty or the steal lost a race
+    public T steal() {
+        long observedTop = top.get();
+        long observedBottom = bottom;
+
+        if (observedTop >= observedBottom) {
+            return null;
+        }
+
+        AtomicReferenceArray<T> observedArray = array;
+        // read the value before claiming it, after a successful cas the owner may reuse the slot
+        T value = observedArray.get((int) (observedTop & (observedArray.length() - 1)));
+
+        return top.compareAndSet(observedTop, observedTop + 1) ? value : null;
+    }
+
+    public boolean isEmpty() {
+        return top.get() >= bottom;
+    }
+
+    public int size() {
+        return (int) Math.max(0, bottom - top.get());
+    }
+
+    private AtomicReferenceArray<T> grow(AtomicReferenceArray<T> oldArray, long observedBottom, long observedTop) {
+        AtomicReferenceArray<T> newArray = new AtomicReferenceArray<>(oldArray.length() << 1);
+
+        for (long i = observedTop; i < observedBottom; i++) {
+            newArray.set((int) (i & (newArray.length() - 1)), oldArray.get((int) (i & (oldArray.length() - 1))));
+        }
+
+        return newArray;
+    }
+}
@@ -2,17 +2,16 @@ package utils;
 
 public class WorkerThread extends Thread {
 
-    public boolean hasBeenCancelled = false;
-    public boolean hasBeenExecuted = false;
     private final Runnable r;
 
     WorkerThread(Runnable r) {
-        super();
+        super(r);
         this.r = r;
     }
 
-    public void start() {
-        r.run();
+    // lets an executor recognize its own workers when tasks are submitted from inside the pool
+    public Runnable getRunnable() {
+        return r;
     }
 
 }
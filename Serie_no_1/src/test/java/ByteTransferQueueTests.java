@@ -0,0 +1,213 @@
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.ByteTransferQueue;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ByteTransferQueueTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(ByteTransferQueueTests.class);
+
+    // payload whose bytes are all its length, so that a reader can tell it's intact
+    private static ByteBuffer payload(int length) {
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            payload.put((byte) length);
+        }
+        return payload.flip();
+    }
+
+    private static boolean isIntact(ByteBuffer payload, int length) {
+        if (payload.remaining() != length) {
+            return false;
+        }
+        while (payload.hasRemaining()) {
+            if (payload.get() != (byte) length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void payloadsWrapAroundTheRingIntact() throws InterruptedException {
+        ByteTransferQueue transferQueue = new ByteTransferQueue(128);
+        ByteBuffer destination = ByteBuffer.allocate(64);
+
+        for (int i = 0; i < 1000; i++) {
+            int length = i % 23;
+            transferQueue.put(payload(length));
+            transferQueue.put(payload(length + 1));
+
+            destination.clear();
+            assertEquals(length, transferQueue.take(destination, 0));
+            assertTrue(isIntact(destination.flip(), length));
+
+            AtomicBoolean isRead = new AtomicBoolean(false);
+            assertTrue(transferQueue.take(0, view -> {
+                assertTrue(view.isReadOnly());
+                isRead.set(isIntact(view, length + 1));
+            }));
+            assertTrue(isRead.get());
+        }
+        assertEquals(-1, transferQueue.take(destination, 100));
+    }
+
+    @Test
+    public void producersWaitForRoomAndSmallDestinationsLeaveThePayload() throws InterruptedException {
+        ByteTransferQueue transferQueue = new ByteTransferQueue(32);
+
+        transferQueue.put(payload(12));
+        transferQueue.put(payload(12));
+        assertFalse(transferQueue.offer(payload(1)));
+        try {
+            transferQueue.put(payload(1));
+            fail("put should have failed on a full queue");
+        } catch (IllegalStateException e) {
+            logger.info("queue is full as expected");
+        }
+        assertFalse(transferQueue.put(payload(1), 100));
+
+        try {
+            transferQueue.take(ByteBuffer.allocate(4), 0);
+            fail("take should have failed on a small destination");
+        } catch (IllegalArgumentException e) {
+            logger.info("destination too small as expected");
+        }
+        try {
+            transferQueue.take(ByteBuffer.allocate(12).asReadOnlyBuffer(), 0);
+            fail("take should have failed on a read only destination");
+        } catch (ReadOnlyBufferException e) {
+            logger.info("destination read only as expected");
+        }
+        // neither of them took the payload
+        ByteBuffer destination = ByteBuffer.allocate(12);
+        assertEquals(12, transferQueue.take(destination, 0));
+        assertTrue(isIntact(destination.flip(), 12));
+        transferQueue.put(payload(12));
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                transferQueue.take(ByteBuffer.allocate(12), 0);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        consumer.start();
+        assertTrue(transferQueue.put(payload(12), 5000));
+        consumer.join();
+    }
+
+    @Test
+    public void anEmptyRingHasRoomForAPayloadOfNearlyItsCapacity() throws InterruptedException {
+        ByteTransferQueue transferQueue = new ByteTransferQueue(1024);
+        ByteBuffer destination = ByteBuffer.allocate(1024);
+
+        // the next record would start in the middle of the ring
+        transferQueue.put(payload(100));
+        assertEquals(100, transferQueue.take(destination, 0));
+
+        assertTrue(transferQueue.offer(payload(1000)));
+        assertEquals(1000, transferQueue.take(destination.clear(), 0));
+        assertTrue(isIntact(destination.flip(), 1000));
+
+        transferQueue.put(payload(100));
+        assertEquals(100, transferQueue.take(destination.clear(), 0));
+        assertTrue(transferQueue.put(payload(1020), 500));
+        assertEquals(1020, transferQueue.take(destination.clear(), 0));
+    }
+
+    @Test
+    public void transferWaitsForItsOwnPayload() throws InterruptedException {
+        ByteTransferQueue transferQueue = new ByteTransferQueue(1024);
+        AtomicBoolean isTransferred = new AtomicBoolean(false);
+        ByteBuffer destination = ByteBuffer.allocate(16);
+
+        transferQueue.put(payload(1));
+        Thread transferrer = new Thread(() -> {
+            try {
+                isTransferred.set(transferQueue.transfer(payload(2), 5000));
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        transferrer.start();
+        Thread.sleep(100);
+
+        // taking the payload put before it doesn't complete the transfer
+        assertEquals(1, transferQueue.take(destination.clear(), 0));
+        Thread.sleep(100);
+        assertFalse(isTransferred.get());
+
+        assertEquals(2, transferQueue.take(destination.clear(), 1000));
+        transferrer.join(5000);
+        assertTrue(isTransferred.get());
+
+        // a transfer that times out leaves its payload
+        assertFalse(transferQueue.transfer(payload(3), 100));
+        assertEquals(3, transferQueue.take(destination.clear(), 0));
+    }
+
+    @Test
+    public void everyPayloadIsTakenOnceAndIntact() throws InterruptedException {
+        ByteTransferQueue transferQueue = new ByteTransferQueue(256);
+        int nOfPairs = 4;
+        int nOfPayloads = 10000;
+        AtomicInteger taken = new AtomicInteger(0);
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfPairs; i++) {
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < nOfPayloads; j++) {
+                        if (!transferQueue.put(payload(j % 50), 5000)) {
+                            error.set(true);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < nOfPayloads; j++) {
+                        boolean isTaken = transferQueue.take(5000, view -> {
+                            if (!isIntact(view, view.remaining())) {
+                                error.set(true);
+                            }
+                        });
+                        if (!isTaken) {
+                            error.set(true);
+                        }
+                        taken.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+        }
+
+        for (Thread th : ths) {
+            th.start();
+        }
+        for (Thread th : ths) {
+            th.join(30000);
+        }
+
+        assertFalse(error.get());
+        assertEquals(nOfPairs * nOfPayloads, taken.get());
+    }
+}
@@ -1,4 +1,6 @@
 import synchronizers.KeyedExchanger;
+import synchronizers.LongKeyedExchanger;
+import synchronizers.ObjectKeyedExchanger;
 import utils.TestHelper;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -11,11 +13,15 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class KeyedExchangerTests {
 
@@ -115,6 +121,159 @@ public class KeyedExchangerTests {
         test(new KeyedExchanger<>(), nOfThreads);
     }
 
+    @Test
+    public void manyPendingKeysArePairedWithTheirOwnData() throws InterruptedException {
+        KeyedExchanger<Integer> keyedExchanger = new KeyedExchanger<>();
+        int nOfKeys = 1000;
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfKeys; i++) {
+            int key = i;
+            Thread th = new Thread(() -> {
+                try {
+                    Optional<Integer> exchangedValue = keyedExchanger.exchange(key, key, 20000);
+                    if (!exchangedValue.isPresent() || exchangedValue.get() != -key) {
+                        error.set(true);
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        // pair them from the last one, whichever ones are already waiting
+        for (int key = nOfKeys - 1; key >= 0; key--) {
+            Optional<Integer> exchangedValue = keyedExchanger.exchange(key, -key, 20000);
+            if (!exchangedValue.isPresent() || exchangedValue.get() != key) {
+                error.set(true);
+            }
+        }
+        for (Thread th : ths) {
+            th.join(20000);
+        }
+        assertFalse(error.get());
+
+        // a pair that didn't come in time leaves nothing behind
+        assertFalse(keyedExchanger.exchange(nOfKeys, 1, 100).isPresent());
+        assertFalse(keyedExchanger.exchange(nOfKeys, 2, 0).isPresent());
+    }
+
+    @Test
+    public void longAndObjectKeysArePairedWithTheirOwnData() throws InterruptedException {
+        LongKeyedExchanger<Integer> longKeyedExchanger = new LongKeyedExchanger<>();
+        ObjectKeyedExchanger<UUID, Integer> objectKeyedExchanger = new ObjectKeyedExchanger<>();
+        int nOfKeys = 500;
+        // keys that only differ above the int range
+        long firstLongKey = 1L << 40;
+        List<UUID> uuids = new ArrayList<>();
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfKeys; i++) {
+            int data = i;
+            UUID uuid = UUID.randomUUID();
+            uuids.add(uuid);
+            Thread th = new Thread(() -> {
+                try {
+                    Optional<Integer> exchangedValue = longKeyedExchanger.exchange(firstLongKey + data, data, 20000);
+                    if (!exchangedValue.isPresent() || exchangedValue.get() != -data) {
+                        error.set(true);
+                    }
+                    exchangedValue = objectKeyedExchanger.exchange(uuid, data, 20000);
+                    if (!exchangedValue.isPresent() || exchangedValue.get() != -data) {
+                        error.set(true);
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        for (int i = nOfKeys - 1; i >= 0; i--) {
+            Optional<Integer> exchangedValue = longKeyedExchanger.exchange(firstLongKey + i, -i, 20000);
+            if (!exchangedValue.isPresent() || exchangedValue.get() != i) {
+                error.set(true);
+            }
+        }
+        for (int i = nOfKeys - 1; i >= 0; i--) {
+            // a new instance with the same value is the same key
+            Optional<Integer> exchangedValue = objectKeyedExchanger.exchange(UUID.fromString(uuids.get(i).toString()),
+                    -i, 20000);
+            if (!exchangedValue.isPresent() || exchangedValue.get() != i) {
+                error.set(true);
+            }
+        }
+        for (Thread th : ths) {
+            th.join(20000);
+        }
+        assertFalse(error.get());
+        assertFalse(longKeyedExchanger.exchange(firstLongKey, 1, 100).isPresent());
+        assertFalse(objectKeyedExchanger.exchange(uuids.get(0), 1, 0).isPresent());
+    }
+
+    @Test
+    public void asyncExchangesArePairedWithoutAThreadEach() throws Exception {
+        KeyedExchanger<Integer> keyedExchanger = new KeyedExchanger<>();
+        int nOfKeys = 100000;
+        List<CompletableFuture<Optional<Integer>>> exchanges = new ArrayList<>();
+
+        for (int i = 0; i < nOfKeys; i++) {
+            exchanges.add(keyedExchanger.exchangeAsync(i, i, 30000));
+        }
+        for (int i = 0; i < nOfKeys; i++) {
+            assertFalse(exchanges.get(i).isDone());
+        }
+
+        // the pairs arrive asynchronously on even keys and blocking on odd ones
+        for (int i = 0; i < nOfKeys; i++) {
+            Optional<Integer> exchangedValue = i % 2 == 0
+                    ? keyedExchanger.exchangeAsync(i, -i, 0).get()
+                    : keyedExchanger.exchange(i, -i, 0);
+            assertEquals(Optional.of(i), exchangedValue);
+            assertEquals(Optional.of(-i), exchanges.get(i).getNow(null));
+        }
+
+        // a blocked exchange is paired with an asynchronous one
+        Thread waiting = new Thread(() -> {
+            try {
+                keyedExchanger.exchange(1, 1, 20000);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        waiting.start();
+        Thread.sleep(100);
+        assertEquals(Optional.of(1), keyedExchanger.exchangeAsync(1, 2, 0).get());
+        waiting.join(5000);
+    }
+
+    @Test
+    public void asyncExchangesTimeOutAndCanBeCancelled() throws Exception {
+        KeyedExchanger<Integer> keyedExchanger = new KeyedExchanger<>();
+
+        assertEquals(Optional.empty(), keyedExchanger.exchangeAsync(1, 1, 0).get());
+        assertEquals(Optional.empty(), keyedExchanger.exchangeAsync(1, 1, 100).get(5, TimeUnit.SECONDS));
+        // nothing was left behind
+        assertFalse(keyedExchanger.exchange(1, 2, 0).isPresent());
+
+        // a cancelled exchange doesn't get a pair
+        CompletableFuture<Optional<Integer>> cancelled = keyedExchanger.exchangeAsync(1, 1, 30000);
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+        assertFalse(keyedExchanger.exchange(1, 2, 0).isPresent());
+
+        // and one that was paired can't be cancelled anymore
+        CompletableFuture<Optional<Integer>> exchanged = keyedExchanger.exchangeAsync(1, 1, 30000);
+        assertEquals(Optional.of(1), keyedExchanger.exchange(1, 2, 0));
+        assertFalse(exchanged.cancel(true));
+        assertEquals(Optional.of(2), exchanged.get());
+    }
+
     private static class ThreadInfo {
 
         private final int data;
@@ -0,0 +1,149 @@
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.KeyedGroupExchanger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedGroupExchangerTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyedGroupExchangerTests.class);
+
+    @Test
+    public void everyPartyGetsTheWholeGroupsData() throws InterruptedException {
+        int nOfParties = 4;
+        int nOfKeys = 200;
+        KeyedGroupExchanger<Integer, List<Integer>> groupExchanger = KeyedGroupExchanger.gathering(nOfParties);
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        // every party of a key sends key * nOfParties plus its own index
+        for (int i = 0; i < nOfKeys * nOfParties; i++) {
+            int key = i / nOfParties;
+            int data = i;
+            Thread th = new Thread(() -> {
+                try {
+                    Optional<List<Integer>> exchangedValue = groupExchanger.exchange(key, data, 20000);
+                    if (!exchangedValue.isPresent() || exchangedValue.get().size() != nOfParties) {
+                        error.set(true);
+                        return;
+                    }
+                    Set<Integer> expected = new HashSet<>();
+                    for (int j = 0; j < nOfParties; j++) {
+                        expected.add(key * nOfParties + j);
+                    }
+                    if (!expected.equals(new HashSet<>(exchangedValue.get()))) {
+                        error.set(true);
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        for (Thread th : ths) {
+            th.join(20000);
+        }
+        assertFalse(error.get());
+    }
+
+    @Test
+    public void combinerIsAppliedOnceByTheLastParty() throws InterruptedException {
+        int nOfParties = 5;
+        AtomicInteger nOfCombines = new AtomicInteger(0);
+        KeyedGroupExchanger<Integer, Integer> groupExchanger = new KeyedGroupExchanger<>(nOfParties, data -> {
+            nOfCombines.incrementAndGet();
+            return data.stream().mapToInt(Integer::intValue).sum();
+        });
+        AtomicInteger nOfRightSums = new AtomicInteger(0);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 1; i < nOfParties; i++) {
+            int data = i;
+            Thread th = new Thread(() -> {
+                try {
+                    if (groupExchanger.exchange(1, data, 20000).orElse(0) == 15) {
+                        nOfRightSums.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        // the group isn't complete until the last party arrives
+        Thread.sleep(200);
+        assertEquals(0, nOfCombines.get());
+        assertEquals(Optional.of(15), groupExchanger.exchange(1, 5, 0));
+
+        for (Thread th : ths) {
+            th.join(5000);
+        }
+        assertEquals(1, nOfCombines.get());
+        assertEquals(nOfParties - 1, nOfRightSums.get());
+    }
+
+    @Test
+    public void timedOutAndInterruptedPartiesLeaveTheirGroup() throws InterruptedException {
+        KeyedGroupExchanger<Integer, List<Integer>> groupExchanger = KeyedGroupExchanger.gathering(3);
+
+        assertFalse(groupExchanger.exchange(1, 1, 0).isPresent());
+        assertFalse(groupExchanger.exchange(1, 1, 100).isPresent());
+
+        AtomicBoolean isInterrupted = new AtomicBoolean(false);
+        Thread interrupted = new Thread(() -> {
+            try {
+                groupExchanger.exchange(1, 2, 20000);
+            } catch (InterruptedException e) {
+                isInterrupted.set(true);
+            }
+        });
+        interrupted.start();
+        Thread.sleep(100);
+        interrupted.interrupt();
+        interrupted.join(5000);
+        assertTrue(isInterrupted.get());
+
+        // neither of them is counted in the group anymore, so a second party isn't enough
+        AtomicBoolean isExchanged = new AtomicBoolean(false);
+        Thread waiting = new Thread(() -> {
+            try {
+                isExchanged.set(groupExchanger.exchange(1, 3, 20000).isPresent());
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        waiting.start();
+        Thread.sleep(100);
+        assertFalse(groupExchanger.exchange(1, 4, 100).isPresent());
+
+        Thread other = new Thread(() -> {
+            try {
+                groupExchanger.exchange(1, 5, 20000);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        other.start();
+        Thread.sleep(100);
+        Optional<List<Integer>> exchangedValue = groupExchanger.exchange(1, 6, 0);
+        other.join(5000);
+        waiting.join(5000);
+        assertTrue(isExchanged.get());
+        assertEquals(Optional.of(List.of(3, 5, 6)), exchangedValue);
+    }
+}
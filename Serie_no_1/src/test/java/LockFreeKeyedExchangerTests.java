@@ -0,0 +1,137 @@
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.LockFreeKeyedExchanger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LockFreeKeyedExchangerTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockFreeKeyedExchangerTests.class);
+
+    @Test
+    public void pairsExchangeTheirDataOnTheirKey() throws InterruptedException {
+        LockFreeKeyedExchanger<Integer> keyedExchanger = new LockFreeKeyedExchanger<>();
+        int nOfKeys = 1000;
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        // both sides of every key, each one sends its key with its own sign
+        for (int i = 1; i <= nOfKeys; i++) {
+            for (int sign : new int[]{1, -1}) {
+                int key = i;
+                Thread th = new Thread(() -> {
+                    try {
+                        Optional<Integer> exchangedValue = keyedExchanger.exchange(key, sign * key, 20000);
+                        if (!exchangedValue.isPresent() || exchangedValue.get() != -sign * key) {
+                            error.set(true);
+                        }
+                    } catch (InterruptedException e) {
+                        logger.info("interrupted, giving up");
+                    }
+                });
+                th.start();
+                ths.add(th);
+            }
+        }
+
+        for (Thread th : ths) {
+            th.join(20000);
+        }
+        assertFalse(error.get());
+    }
+
+    @Test
+    public void timedOutAndInterruptedWaitersRetractTheirData() throws InterruptedException {
+        LockFreeKeyedExchanger<Integer> keyedExchanger = new LockFreeKeyedExchanger<>();
+
+        assertFalse(keyedExchanger.exchange(1, 1, 0).isPresent());
+        assertFalse(keyedExchanger.exchange(1, 1, 100).isPresent());
+        // nothing was left behind by either
+        assertFalse(keyedExchanger.exchange(1, 2, 0).isPresent());
+
+        AtomicBoolean isInterrupted = new AtomicBoolean(false);
+        Thread waiter = new Thread(() -> {
+            try {
+                keyedExchanger.exchange(2, 1, 20000);
+            } catch (InterruptedException e) {
+                isInterrupted.set(true);
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        waiter.interrupt();
+        waiter.join(5000);
+        assertTrue(isInterrupted.get());
+        assertFalse(keyedExchanger.exchange(2, 2, 0).isPresent());
+    }
+
+    @Test
+    public void nullDataIsRejectedBeforeMatchingAnyone() throws InterruptedException {
+        LockFreeKeyedExchanger<Integer> keyedExchanger = new LockFreeKeyedExchanger<>();
+        AtomicBoolean isExchanged = new AtomicBoolean(false);
+
+        Thread waiter = new Thread(() -> {
+            try {
+                isExchanged.set(keyedExchanger.exchange(1, 1, 5000).isPresent());
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+
+        try {
+            keyedExchanger.exchange(1, null, 0);
+            fail("null data should have been rejected");
+        } catch (NullPointerException e) {
+            logger.info("null data rejected as expected");
+        }
+
+        // the waiter is still there for a real pair
+        assertEquals(Optional.of(1), keyedExchanger.exchange(1, 2, 0));
+        waiter.join(5000);
+        assertTrue(isExchanged.get());
+    }
+
+    @Test
+    public void pairsOfThreadsKeepExchangingOnTheirKey() throws InterruptedException {
+        LockFreeKeyedExchanger<Integer> keyedExchanger = new LockFreeKeyedExchanger<>();
+        int nOfThreads = 16;
+        int nOfExchanges = 10000;
+        AtomicInteger exchanged = new AtomicInteger(0);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfThreads; i++) {
+            // two threads per key, so that each one always has a pair for its next exchange
+            int key = i / 2;
+            Thread th = new Thread(() -> {
+                try {
+                    for (int j = 0; j < nOfExchanges; j++) {
+                        if (keyedExchanger.exchange(key, j, 20000).isPresent()) {
+                            exchanged.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        for (Thread th : ths) {
+            th.join(60000);
+        }
+        assertEquals(nOfThreads * nOfExchanges, exchanged.get());
+    }
+}
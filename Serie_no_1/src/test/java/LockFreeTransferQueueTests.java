@@ -0,0 +1,101 @@
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.LockFreeTransferQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LockFreeTransferQueueTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockFreeTransferQueueTests.class);
+
+    @Test
+    public void transferReturnsOnlyOnceTheMessageIsTaken() throws InterruptedException {
+        LockFreeTransferQueue<Integer> transferQueue = new LockFreeTransferQueue<>();
+        int takeDelay = 200;
+
+        Thread taker = new Thread(() -> {
+            try {
+                Thread.sleep(takeDelay);
+                transferQueue.take(1000);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        taker.start();
+
+        long start = System.currentTimeMillis();
+        assertTrue(transferQueue.transfer(1, 5000));
+        assertTrue(System.currentTimeMillis() - start >= takeDelay);
+        taker.join();
+    }
+
+    @Test
+    public void timedOutTransferLeavesTheMessageQueued() throws InterruptedException {
+        LockFreeTransferQueue<Integer> transferQueue = new LockFreeTransferQueue<>();
+
+        assertNull(transferQueue.take(0));
+        assertFalse(transferQueue.transfer(1, 100));
+        transferQueue.put(2);
+
+        // fifo, the message that wasn't transferred in time is still first
+        assertEquals(Integer.valueOf(1), transferQueue.take(0));
+        assertEquals(Integer.valueOf(2), transferQueue.take(0));
+        assertNull(transferQueue.take(100));
+    }
+
+    @Test
+    public void everyTransferIsMatchedWithOneTake() throws InterruptedException {
+        LockFreeTransferQueue<Integer> transferQueue = new LockFreeTransferQueue<>();
+        int nOfPairs = 4;
+        int nOfMessages = 10000;
+        AtomicInteger taken = new AtomicInteger(0);
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfPairs; i++) {
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < nOfMessages; j++) {
+                        if (!transferQueue.transfer(j, 5000)) {
+                            error.set(true);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < nOfMessages; j++) {
+                        if (transferQueue.take(5000) == null) {
+                            error.set(true);
+                        }
+                        taken.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+        }
+
+        for (Thread th : ths) {
+            th.start();
+        }
+        for (Thread th : ths) {
+            th.join(30000);
+        }
+
+        assertFalse(error.get());
+        assertEquals(nOfPairs * nOfMessages, taken.get());
+        assertNull(transferQueue.take(0));
+    }
+}
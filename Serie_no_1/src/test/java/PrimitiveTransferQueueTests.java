@@ -0,0 +1,125 @@
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.IntTransferQueue;
+import synchronizers.LongTransferQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrimitiveTransferQueueTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrimitiveTransferQueueTests.class);
+
+    @Test
+    public void messagesKeepTheirOrderWhileTheRingGrows() throws InterruptedException, TimeoutException {
+        LongTransferQueue transferQueue = new LongTransferQueue(2);
+        long next = 0;
+
+        // take less than what is put so that the ring wraps around and grows with messages in it
+        for (long i = 0; i < 1000; i++) {
+            transferQueue.put(i);
+            if (i % 3 == 0) {
+                assertEquals(next++, transferQueue.take(0));
+            }
+        }
+        while (next < 1000) {
+            assertEquals(next++, transferQueue.take(0));
+        }
+        assertEquals(0, transferQueue.size());
+
+        try {
+            transferQueue.take(100);
+            fail("take should have timed out on an empty queue");
+        } catch (TimeoutException e) {
+            logger.info("timed out as expected");
+        }
+    }
+
+    @Test
+    public void transferWaitsForItsOwnMessage() throws Exception {
+        LongTransferQueue transferQueue = new LongTransferQueue();
+        AtomicBoolean isTransferred = new AtomicBoolean(false);
+
+        transferQueue.put(1);
+        Thread transferrer = new Thread(() -> {
+            try {
+                isTransferred.set(transferQueue.transfer(2, 5000));
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        transferrer.start();
+        Thread.sleep(100);
+
+        // taking the message put before it doesn't complete the transfer
+        assertEquals(1, transferQueue.take(0));
+        Thread.sleep(100);
+        assertFalse(isTransferred.get());
+
+        assertEquals(2, transferQueue.take(1000));
+        transferrer.join(5000);
+        assertTrue(isTransferred.get());
+
+        // a transfer that times out leaves its message, whose taking completes no one
+        assertFalse(transferQueue.transfer(3, 100));
+        assertEquals(3, transferQueue.take(0));
+        assertEquals(0, transferQueue.size());
+    }
+
+    @Test
+    public void everyMessageIsTakenOnce() throws InterruptedException {
+        IntTransferQueue transferQueue = new IntTransferQueue();
+        int nOfPairs = 4;
+        int nOfMessages = 10000;
+        AtomicLong sum = new AtomicLong(0);
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfPairs; i++) {
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 1; j <= nOfMessages; j++) {
+                        if (j % 100 == 0) {
+                            if (!transferQueue.transfer(j, 5000)) {
+                                error.set(true);
+                            }
+                        } else {
+                            transferQueue.put(j);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < nOfMessages; j++) {
+                        sum.addAndGet(transferQueue.take(5000));
+                    }
+                } catch (InterruptedException | TimeoutException e) {
+                    error.set(true);
+                }
+            }));
+        }
+
+        for (Thread th : ths) {
+            th.start();
+        }
+        for (Thread th : ths) {
+            th.join(30000);
+        }
+
+        assertFalse(error.get());
+        assertEquals((long) nOfPairs * nOfMessages * (nOfMessages + 1) / 2, sum.get());
+        assertEquals(0, transferQueue.size());
+    }
+}
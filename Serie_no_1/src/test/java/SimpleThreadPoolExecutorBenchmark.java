@@ -0,0 +1,89 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.SimpleThreadPoolExecutor;
+import utils.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+// not a test, run its main to compare submission throughput of both queueing engines and both thread
+// modes on blocking tasks
+public class SimpleThreadPoolExecutorBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimpleThreadPoolExecutorBenchmark.class);
+    private static final int N_OF_TASKS = 100000;
+    private static final int BLOCKING_TIME = 100;
+    private static final int PLATFORM_POOL_SIZE = 1000;
+
+    private static long runBlockingTasks(SimpleThreadPoolExecutor threadPoolExecutor) throws Exception {
+        List<Callable<Integer>> commands = new ArrayList<>();
+        for (int i = 0; i < N_OF_TASKS; ++i) {
+            commands.add(() -> {
+                Thread.sleep(BLOCKING_TIME);
+                return 1;
+            });
+        }
+
+        long start = System.currentTimeMillis();
+        List<Result<Integer>> results = threadPoolExecutor.executeAll(commands);
+        for (Result<Integer> result : results) {
+            result.get(Integer.MAX_VALUE);
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        threadPoolExecutor.awaitTermination(Integer.MAX_VALUE);
+        return duration;
+    }
+
+    private static final int N_OF_SUBMISSIONS = 1000000;
+    private static final int[] N_OF_PRODUCERS = {1, 2, 4, 8, 16};
+
+    // returns submissions per millisecond
+    private static long submitEmptyTasks(SimpleThreadPoolExecutor threadPoolExecutor, int nOfProducers)
+            throws Exception {
+        List<Thread> ths = new ArrayList<>();
+        int submissionsPerProducer = N_OF_SUBMISSIONS / nOfProducers;
+
+        for (int i = 0; i < nOfProducers; ++i) {
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < submissionsPerProducer; ++j) {
+                        threadPoolExecutor.execute(() -> 1);
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread th : ths) {
+            th.start();
+        }
+        for (Thread th : ths) {
+            th.join();
+        }
+        long duration = Math.max(1, System.currentTimeMillis() - start);
+
+        threadPoolExecutor.awaitTermination(Integer.MAX_VALUE);
+        return submissionsPerProducer * nOfProducers / duration;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolSize = Runtime.getRuntime().availableProcessors();
+        for (int nOfProducers : N_OF_PRODUCERS) {
+            long monitor = submitEmptyTasks(new SimpleThreadPoolExecutor(poolSize, 1000), nOfProducers);
+            long lockFree = submitEmptyTasks(SimpleThreadPoolExecutor.withLockFreeHandoff(poolSize, 1000),
+                    nOfProducers);
+            logger.info("{} producers: {} submissions/ms with monitor, {} submissions/ms lock free",
+                    nOfProducers, monitor, lockFree);
+        }
+
+        long platform = runBlockingTasks(new SimpleThreadPoolExecutor(PLATFORM_POOL_SIZE, 1000));
+        logger.info("{} blocking tasks on {} platform threads took {} ms", N_OF_TASKS, PLATFORM_POOL_SIZE, platform);
+
+        long virtual = runBlockingTasks(SimpleThreadPoolExecutor.withVirtualThreads(N_OF_TASKS));
+        logger.info("{} blocking tasks on virtual threads took {} ms", N_OF_TASKS, virtual);
+    }
+}
@@ -1,18 +1,32 @@
-/*import org.junit.Test;
+import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import synchronizers.ExecutorMetrics;
 import synchronizers.SimpleThreadPoolExecutor;
 import utils.Result;
+import utils.SaturationPolicy;
 import utils.Timeouts;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class SimpleThreadPoolExecutorTests {
 
@@ -105,7 +119,562 @@ public class SimpleThreadPoolExecutorTests {
 
         test(threadPoolExecutor, 10);
     }
-}
 
+    @Test
+    public void tasksRunInParallelOnPoolThreads() throws Exception {
+        int nOfTasks = 4;
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(nOfTasks, 2000);
+        // every task waits for all the others, which only completes if they are all running at the same time
+        CountDownLatch allRunning = new CountDownLatch(nOfTasks);
+        List<Result<Thread>> results = new ArrayList<>();
+
+        for (int i = 0; i < nOfTasks; ++i) {
+            results.add(threadPoolExecutor.execute(() -> {
+                allRunning.countDown();
+                if (!allRunning.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("tasks didn't run in parallel");
+                }
+                return Thread.currentThread();
+            }));
+        }
+
+        for (Result<Thread> result : results) {
+            Optional<Thread> thread = result.get(10000);
+            assertTrue(thread.isPresent());
+            assertNotEquals(Thread.currentThread(), thread.get());
+        }
+
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void idleWorkersStealTasksSubmittedFromInsideThePool() throws Exception {
+        int nOfSubTasks = 3;
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(nOfSubTasks + 1, 2000);
+        CountDownLatch allRunning = new CountDownLatch(nOfSubTasks + 1);
+
+        // the sub tasks are pushed to the parent's deque and the parent blocks, so they can only run if stolen
+        Result<Integer> parent = threadPoolExecutor.execute(() -> {
+            List<Result<Integer>> subTasks = new ArrayList<>();
+            for (int i = 0; i < nOfSubTasks; ++i) {
+                subTasks.add(threadPoolExecutor.execute(() -> {
+                    allRunning.countDown();
+                    return allRunning.await(5, TimeUnit.SECONDS) ? 1 : 0;
+                }));
+            }
+            allRunning.countDown();
+            int sum = allRunning.await(5, TimeUnit.SECONDS) ? 1 : 0;
+            for (Result<Integer> subTask : subTasks) {
+                sum += subTask.get(5000).orElse(0);
+            }
+            return sum;
+        });
+
+        assertEquals(Optional.of(nOfSubTasks + 1), parent.get(10000));
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void waitersHonorTimeoutAndAreAllReleasedOnCompletion() throws Exception {
+        int nOfWaiters = 100;
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(1, 2000);
+        CountDownLatch release = new CountDownLatch(1);
+        Result<Integer> result = threadPoolExecutor.execute(() -> {
+            release.await();
+            return 42;
+        });
+
+        // allows for a 100ms error due to scheduling delays
+        long start = System.currentTimeMillis();
+        assertFalse(result.get(200).isPresent());
+        long duration = System.currentTimeMillis() - start;
+        assertTrue(duration >= 200 && duration < 300);
+        assertFalse(result.isComplete());
+
+        final AtomicBoolean error = new AtomicBoolean();
+        final List<Thread> ths = new ArrayList<>();
+        for (int i = 0; i < nOfWaiters; ++i) {
+            Thread th = new Thread(() -> {
+                try {
+                    if (!result.get(10000).equals(Optional.of(42))) {
+                        error.set(true);
+                    }
+                } catch (Exception e) {
+                    error.set(true);
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        release.countDown();
+        for (Thread th : ths) {
+            th.join(5000);
+            if (th.isAlive()) {
+                error.set(true);
+            }
+        }
+
+        assertFalse(error.get());
+        assertTrue(result.isComplete());
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void bulkSubmissionRunsEveryTaskAndInvokeAnyReturnsFirstSuccess() throws Exception {
+        int nOfTasks = 1000;
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(4, 2000);
+        List<Callable<Integer>> commands = new ArrayList<>();
+        for (int i = 0; i < nOfTasks; ++i) {
+            final int value = i;
+            commands.add(() -> value);
+        }
 
- */
+        List<Result<Integer>> results = threadPoolExecutor.executeAll(commands);
+        for (int i = 0; i < nOfTasks; ++i) {
+            assertEquals(Optional.of(i), results.get(i).get(5000));
+        }
+
+        results = threadPoolExecutor.invokeAll(commands, 5000);
+        for (Result<Integer> result : results) {
+            assertTrue(result.isComplete());
+        }
+
+        List<Callable<Integer>> mostlyFailing = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            mostlyFailing.add(() -> {
+                throw new IllegalStateException();
+            });
+        }
+        mostlyFailing.add(() -> 7);
+        assertEquals(Optional.of(7), threadPoolExecutor.invokeAny(mostlyFailing, 5000));
+
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void invokeAnyCountsTasksDroppedBeforeRunningAsFailed() throws Exception {
+        // a single worker and room for a single queued task, the third task drops the second one
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(1, 2000, 1,
+                SaturationPolicy.dropOldest, 0);
+        List<Callable<Integer>> commands = new ArrayList<>();
+        commands.add(() -> {
+            Thread.sleep(100);
+            throw new IllegalStateException("first");
+        });
+        commands.add(() -> 2);
+        commands.add(() -> {
+            throw new IllegalStateException("last");
+        });
+
+        long start = System.currentTimeMillis();
+        try {
+            threadPoolExecutor.invokeAny(commands, 5000);
+            fail("invokeAny should have thrown the last failure");
+        } catch (IllegalStateException e) {
+            assertEquals("last", e.getMessage());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        }
+        assertEquals(1, threadPoolExecutor.getDroppedCount());
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void virtualThreadsRunBlockingTasksUpToTheConcurrencyLimit() throws Exception {
+        int nOfTasks = 10000;
+        int maxConcurrency = 5000;
+        SimpleThreadPoolExecutor threadPoolExecutor = SimpleThreadPoolExecutor.withVirtualThreads(maxConcurrency);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Callable<Boolean>> commands = new ArrayList<>();
+        for (int i = 0; i < nOfTasks; ++i) {
+            commands.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(100);
+                running.decrementAndGet();
+                return Thread.currentThread().isVirtual();
+            });
+        }
+
+        List<Result<Boolean>> results = threadPoolExecutor.invokeAll(commands, 10000);
+        for (Result<Boolean> result : results) {
+            assertEquals(Optional.of(true), result.get(0));
+        }
+        assertTrue(maxRunning.get() <= maxConcurrency);
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void lockFreeHandoffRunsEveryTaskSubmittedByManyProducers() throws Exception {
+        int nOfProducers = 8;
+        int nOfTasksPerProducer = 10000;
+        SimpleThreadPoolExecutor threadPoolExecutor = SimpleThreadPoolExecutor.withLockFreeHandoff(4, 2000);
+        final AtomicBoolean error = new AtomicBoolean();
+        final AtomicInteger executed = new AtomicInteger();
+        final List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfProducers; ++i) {
+            Thread th = new Thread(() -> {
+                try {
+                    List<Result<Integer>> results = new ArrayList<>();
+                    for (int j = 0; j < nOfTasksPerProducer; ++j) {
+                        results.add(threadPoolExecutor.execute(executed::incrementAndGet));
+                    }
+                    for (Result<Integer> result : results) {
+                        if (!result.get(10000).isPresent()) {
+                            error.set(true);
+                        }
+                    }
+                } catch (Exception e) {
+                    error.set(true);
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        for (Thread th : ths) {
+            th.join(20000);
+        }
+
+        assertFalse(error.get());
+        assertEquals(nOfProducers * nOfTasksPerProducer, executed.get());
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void lockFreeHandoffWorkersDontMissTasksPushedWhileTheyWereGoingIdle() throws Exception {
+        int nOfRounds = 5000;
+        // core workers that would otherwise sleep for as long as it takes
+        SimpleThreadPoolExecutor threadPoolExecutor = SimpleThreadPoolExecutor.withLockFreeHandoff(2, 2, 60000);
+        threadPoolExecutor.prestartAllCoreThreads();
+
+        // the child is pushed to the parent's deque and the parent blocks, so it only runs if the other worker,
+        // usually on its way to going idle, steals it
+        for (int i = 0; i < nOfRounds; ++i) {
+            Result<Integer> parent = threadPoolExecutor.execute(() -> {
+                Result<Integer> child = threadPoolExecutor.execute(() -> 1);
+                return child.get(2000).orElse(0);
+            });
+            assertEquals(Optional.of(1), parent.get(5000));
+        }
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    // a single busy worker and a full queue of two, returns the two queued results
+    private List<Result<Integer>> saturate(SimpleThreadPoolExecutor threadPoolExecutor, CountDownLatch release)
+            throws InterruptedException {
+        List<Result<Integer>> queued = new ArrayList<>();
+        threadPoolExecutor.execute(() -> {
+            release.await();
+            return 0;
+        });
+        queued.add(threadPoolExecutor.execute(() -> 1));
+        queued.add(threadPoolExecutor.execute(() -> 2));
+        return queued;
+    }
+
+    @Test
+    public void saturationPoliciesAreAppliedWhenTheWorkQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        SimpleThreadPoolExecutor rejecting = new SimpleThreadPoolExecutor(1, 2000, 2, SaturationPolicy.reject, 0);
+        saturate(rejecting, release);
+        try {
+            rejecting.execute(() -> 3);
+            fail("work should have been rejected");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, rejecting.getRejectedCount());
+        }
+
+        SimpleThreadPoolExecutor callerRuns = new SimpleThreadPoolExecutor(1, 2000, 2, SaturationPolicy.callerRuns, 0);
+        saturate(callerRuns, release);
+        Result<Thread> ranBy = callerRuns.execute(Thread::currentThread);
+        assertEquals(Optional.of(Thread.currentThread()), ranBy.get(0));
+        assertEquals(1, callerRuns.getCallerRunsCount());
+
+        SimpleThreadPoolExecutor droppingOldest = new SimpleThreadPoolExecutor(1, 2000, 2,
+                SaturationPolicy.dropOldest, 0);
+        List<Result<Integer>> queued = saturate(droppingOldest, release);
+        Result<Integer> newest = droppingOldest.execute(() -> 3);
+        assertTrue(queued.get(0).isComplete());
+        assertFalse(queued.get(0).get(0).isPresent());
+        assertEquals(1, droppingOldest.getDroppedCount());
+
+        SimpleThreadPoolExecutor blocking = new SimpleThreadPoolExecutor(1, 2000, 2, SaturationPolicy.block, 200);
+        saturate(blocking, release);
+        long start = System.currentTimeMillis();
+        try {
+            blocking.execute(() -> 3);
+            fail("work should have been rejected after blocking");
+        } catch (RejectedExecutionException e) {
+            assertTrue(System.currentTimeMillis() - start >= 200);
+            assertEquals(1, blocking.getBlockedCount());
+            assertEquals(1, blocking.getRejectedCount());
+        }
+
+        // once the workers move on, blocked submitters get in
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+            release.countDown();
+        }).start();
+        Result<Integer> unblocked = blocking.execute(() -> 4);
+        assertEquals(Optional.of(4), unblocked.get(5000));
+        assertEquals(Optional.of(3), newest.get(5000));
+
+        for (SimpleThreadPoolExecutor threadPoolExecutor : new SimpleThreadPoolExecutor[] {rejecting, callerRuns,
+                droppingOldest, blocking}) {
+            assertTrue(threadPoolExecutor.awaitTermination(5000));
+        }
+    }
+
+    @Test
+    public void tasksSubmittedFromInsideThePoolCountAgainstQueueCapacity() throws Exception {
+        int nOfChildren = 10;
+        int queueCapacity = 4;
+
+        // a single worker, so the children wait in its deque until the parent returns
+        SimpleThreadPoolExecutor callerRuns = new SimpleThreadPoolExecutor(1, 2000, queueCapacity,
+                SaturationPolicy.callerRuns, 0);
+        Result<Integer> ranInline = callerRuns.execute(() -> {
+            int completed = 0;
+            for (int i = 0; i < nOfChildren; ++i) {
+                if (callerRuns.execute(() -> 1).isComplete()) {
+                    completed++;
+                }
+            }
+            return completed;
+        });
+        assertEquals(Optional.of(nOfChildren - queueCapacity), ranInline.get(5000));
+        assertEquals(nOfChildren - queueCapacity, callerRuns.getCallerRunsCount());
+
+        SimpleThreadPoolExecutor rejecting = new SimpleThreadPoolExecutor(1, 2000, queueCapacity,
+                SaturationPolicy.reject, 0);
+        AtomicInteger queueDepth = new AtomicInteger(0);
+        Result<Integer> rejected = rejecting.execute(() -> {
+            int nOfRejected = 0;
+            for (int i = 0; i < nOfChildren; ++i) {
+                try {
+                    rejecting.execute(() -> 1);
+                } catch (RejectedExecutionException e) {
+                    nOfRejected++;
+                }
+            }
+            // the children waiting in the deque are part of the queue depth
+            queueDepth.set(rejecting.getMetrics().getQueueDepth());
+            return nOfRejected;
+        });
+        assertEquals(Optional.of(nOfChildren - queueCapacity), rejected.get(5000));
+        assertEquals(nOfChildren - queueCapacity, rejecting.getRejectedCount());
+        assertEquals(queueCapacity, queueDepth.get());
+
+        assertTrue(callerRuns.awaitTermination(5000));
+        assertTrue(rejecting.awaitTermination(5000));
+    }
+
+    @Test
+    public void dueScheduledTasksAreQueuedPastCapacityInsteadOfStallingTheTimer() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SimpleThreadPoolExecutor callerRuns = new SimpleThreadPoolExecutor(1, 2000, 2, SaturationPolicy.callerRuns, 0);
+        SimpleThreadPoolExecutor blocking = new SimpleThreadPoolExecutor(1, 2000, 2, SaturationPolicy.block, 2000);
+        List<Result<Thread>> scheduled = new ArrayList<>();
+
+        for (SimpleThreadPoolExecutor threadPoolExecutor : new SimpleThreadPoolExecutor[] {callerRuns, blocking}) {
+            saturate(threadPoolExecutor, release);
+            scheduled.add(threadPoolExecutor.schedule(Thread::currentThread, 20));
+            scheduled.add(threadPoolExecutor.schedule(Thread::currentThread, 40));
+        }
+
+        // every one of them is due, none ran on the timer's thread nor kept it waiting for room
+        Thread.sleep(200);
+        for (Result<Thread> result : scheduled) {
+            assertFalse(result.isComplete());
+        }
+        assertEquals(0, callerRuns.getCallerRunsCount());
+        assertEquals(0, blocking.getBlockedCount());
+
+        release.countDown();
+        for (Result<Thread> result : scheduled) {
+            Optional<Thread> ranBy = result.get(5000);
+            assertTrue(ranBy.isPresent());
+            assertFalse(ranBy.get().getName().equals("timer-wheel"));
+        }
+
+        assertTrue(callerRuns.awaitTermination(5000));
+        assertTrue(blocking.awaitTermination(5000));
+    }
+
+    @Test
+    public void scheduledTasksRunOnceDueAndCancelledOnesNever() throws Exception {
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(2, 2000);
+
+        long start = System.currentTimeMillis();
+        Result<Long> delayed = threadPoolExecutor.schedule(System::currentTimeMillis, 200);
+        AtomicBoolean cancelledRan = new AtomicBoolean(false);
+        Result<Boolean> cancelled = threadPoolExecutor.schedule(() -> cancelledRan.getAndSet(true), 100);
+        assertTrue(cancelled.tryCancel());
+
+        Optional<Long> ranAt = delayed.get(5000);
+        assertTrue(ranAt.isPresent());
+        assertTrue(ranAt.get() - start >= 200);
+
+        AtomicInteger runs = new AtomicInteger(0);
+        Result<Void> periodic = threadPoolExecutor.scheduleAtFixedRate(runs::incrementAndGet, 0, 50);
+        Thread.sleep(500);
+        assertTrue(periodic.tryCancel());
+        int runsWhenCancelled = runs.get();
+        assertTrue(runsWhenCancelled >= 5);
+
+        Thread.sleep(200);
+        assertFalse(cancelledRan.get());
+        // at most the run that was already submitted when it got cancelled
+        assertTrue(runs.get() <= runsWhenCancelled + 1);
+
+        // timers still pending at shutdown are cancelled
+        Result<Integer> pending = threadPoolExecutor.schedule(() -> 1, 60000);
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+        assertTrue(pending.isComplete());
+        assertFalse(pending.get(0).isPresent());
+    }
+
+    @Test
+    public void coreWorkersOutliveKeepAliveAndTheMostRecentlyIdleOneIsReused() throws Exception {
+        int corePoolSize = 3;
+        int keepAliveTime = 100;
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(corePoolSize, 6, keepAliveTime);
+
+        assertEquals(corePoolSize, threadPoolExecutor.prestartAllCoreThreads());
+        assertEquals(0, threadPoolExecutor.prestartAllCoreThreads());
+
+        // grow past the core size
+        CountDownLatch release = new CountDownLatch(1);
+        List<Result<Boolean>> blocked = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            blocked.add(threadPoolExecutor.execute(() -> release.await(5000, TimeUnit.MILLISECONDS)));
+        }
+        assertEquals(6, threadPoolExecutor.getPoolSize());
+        release.countDown();
+        for (Result<Boolean> result : blocked) {
+            assertEquals(Optional.of(true), result.get(5000));
+        }
+
+        // only the extra workers expire
+        Thread.sleep(keepAliveTime * 5);
+        assertEquals(corePoolSize, threadPoolExecutor.getPoolSize());
+
+        // sequential tasks keep landing on the same, most recently idle, worker
+        Thread previous = null;
+        for (int i = 0; i < 5; i++) {
+            Optional<Thread> ranBy = threadPoolExecutor.execute(Thread::currentThread).get(5000);
+            assertTrue(ranBy.isPresent());
+            if (previous != null) {
+                assertEquals(previous, ranBy.get());
+            }
+            previous = ranBy.get();
+            // let the worker go back to waiting for work
+            Thread.sleep(50);
+        }
+
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+        assertEquals(0, threadPoolExecutor.getPoolSize());
+    }
+
+    @Test
+    public void cancellingFreesTheQueuedSpotAndInterruptsRunningWork() throws Exception {
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(1, 2000, 2,
+                SaturationPolicy.reject, 0);
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        Result<Integer> running = threadPoolExecutor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(20000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw e;
+            }
+            return 0;
+        });
+        started.await();
+
+        AtomicBoolean cancelledRan = new AtomicBoolean(false);
+        Result<Boolean> cancelled = threadPoolExecutor.execute(() -> cancelledRan.getAndSet(true));
+        Result<Integer> queued = threadPoolExecutor.execute(() -> 2);
+
+        // the queue is full until a queued task is cancelled
+        assertTrue(cancelled.tryCancel());
+        assertFalse(cancelled.tryCancel());
+        Result<Integer> replacement = threadPoolExecutor.execute(() -> 3);
+
+        long start = System.currentTimeMillis();
+        assertTrue(running.tryCancel());
+        assertTrue(running.isComplete());
+        assertFalse(running.get(0).isPresent());
+
+        // the worker moves on right away, without the interrupt meant for the cancelled task
+        assertEquals(Optional.of(2), queued.get(5000));
+        assertEquals(Optional.of(3), replacement.get(5000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(interrupted.get());
+        assertEquals(Optional.of(false), threadPoolExecutor.execute(Thread::interrupted).get(5000));
+        assertFalse(cancelledRan.get());
+
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+
+    @Test
+    public void metricsReportQueueingRunTimesAndReclaimedWorkers() throws Exception {
+        int keepAliveTime = 100;
+        SimpleThreadPoolExecutor threadPoolExecutor = new SimpleThreadPoolExecutor(1, keepAliveTime, 2,
+                SaturationPolicy.reject, 0);
+        threadPoolExecutor.registerMBean("metricsTest");
+
+        CountDownLatch release = new CountDownLatch(1);
+        List<Result<Integer>> queued = saturate(threadPoolExecutor, release);
+        try {
+            threadPoolExecutor.execute(() -> 3);
+            fail("work should have been rejected");
+        } catch (RejectedExecutionException e) {
+            logger.info("rejected as expected");
+        }
+
+        ExecutorMetrics metrics = threadPoolExecutor.getMetrics();
+        assertEquals(2, metrics.getQueueDepth());
+        assertEquals(1, metrics.getExistingThreads());
+        assertEquals(1, metrics.getRejectedCount());
+
+        Thread.sleep(50);
+        release.countDown();
+        for (Result<Integer> result : queued) {
+            assertTrue(result.get(5000).isPresent());
+        }
+
+        // the only worker expires once idle for keepAliveTime
+        Thread.sleep(keepAliveTime * 5);
+        metrics = threadPoolExecutor.getMetrics();
+        logger.info("{}", metrics);
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(2, metrics.getPeakQueueDepth());
+        assertEquals(0, metrics.getExistingThreads());
+        assertEquals(3, metrics.getCompletedTasks());
+        assertEquals(1, metrics.getKeepAliveExpirations());
+        // the queued tasks waited for the first one, which ran for at least 50ms
+        assertTrue(metrics.getMaxQueueWait() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(metrics.getMaxExecutionTime() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(metrics.getP50ExecutionTime() <= metrics.getMaxExecutionTime());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("synchronizers:type=SimpleThreadPoolExecutor,name=metricsTest");
+        CompositeData exposed = (CompositeData) server.getAttribute(name, "Metrics");
+        assertEquals(3L, exposed.get("completedTasks"));
+        threadPoolExecutor.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+
+        assertTrue(threadPoolExecutor.awaitTermination(5000));
+    }
+}
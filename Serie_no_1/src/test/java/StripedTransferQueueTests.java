@@ -0,0 +1,150 @@
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.StripedTransferQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StripedTransferQueueTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(StripedTransferQueueTests.class);
+
+    @Test
+    public void transferReturnsOnlyOnceTheMessageIsTaken() throws InterruptedException {
+        StripedTransferQueue<Integer> transferQueue = new StripedTransferQueue<>(4);
+        int takeDelay = 200;
+
+        Thread taker = new Thread(() -> {
+            try {
+                Thread.sleep(takeDelay);
+                transferQueue.take(1000);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        taker.start();
+
+        long start = System.currentTimeMillis();
+        assertTrue(transferQueue.transfer(1, 5000));
+        assertTrue(System.currentTimeMillis() - start >= takeDelay);
+        taker.join();
+
+        // a transfer nobody takes in time stays queued
+        assertFalse(transferQueue.transfer(2, 100));
+        assertEquals(Integer.valueOf(2), transferQueue.take(0));
+        assertNull(transferQueue.take(100));
+    }
+
+    @Test
+    public void waitingConsumersSeeMessagesPutInAnyLane() throws InterruptedException {
+        StripedTransferQueue<Integer> transferQueue = new StripedTransferQueue<>(8);
+        int nOfConsumers = 4;
+        AtomicInteger taken = new AtomicInteger(0);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfConsumers; i++) {
+            Thread consumer = new Thread(() -> {
+                try {
+                    if (transferQueue.take(5000) != null) {
+                        taken.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            ths.add(consumer);
+            consumer.start();
+        }
+
+        // let the consumers start waiting, then put from different threads and so from different lanes
+        Thread.sleep(200);
+        for (int i = 0; i < nOfConsumers; i++) {
+            int message = i;
+            Thread producer = new Thread(() -> transferQueue.put(message));
+            ths.add(producer);
+            producer.start();
+        }
+
+        for (Thread th : ths) {
+            th.join(5000);
+        }
+        assertEquals(nOfConsumers, taken.get());
+    }
+
+    @Test
+    public void manyProducersDeliverEveryMessageInTheirOwnOrder() throws InterruptedException {
+        StripedTransferQueue<Integer> transferQueue = new StripedTransferQueue<>();
+        int nOfProducers = 32;
+        int nOfConsumers = 4;
+        int nOfMessages = 2000;
+        AtomicInteger taken = new AtomicInteger(0);
+        AtomicBoolean error = new AtomicBoolean(false);
+        List<Thread> ths = new ArrayList<>();
+
+        for (int i = 0; i < nOfProducers; i++) {
+            int producer = i;
+            ths.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < nOfMessages; j++) {
+                        // every tenth message waits for its consumer
+                        if (j % 10 == 0) {
+                            if (!transferQueue.transfer(producer * nOfMessages + j, 5000)) {
+                                error.set(true);
+                            }
+                        } else {
+                            transferQueue.put(producer * nOfMessages + j);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+        }
+        for (int i = 0; i < nOfConsumers; i++) {
+            ths.add(new Thread(() -> {
+                // messages of the same producer can be taken by different consumers, so only check that
+                // each consumer sees them in order
+                int[] lastTaken = new int[nOfProducers];
+                Arrays.fill(lastTaken, -1);
+
+                try {
+                    while (taken.get() < nOfProducers * nOfMessages) {
+                        Integer message = transferQueue.take(100);
+                        if (message == null) {
+                            continue;
+                        }
+                        taken.incrementAndGet();
+
+                        int producer = message / nOfMessages;
+                        if (lastTaken[producer] > message) {
+                            error.set(true);
+                        }
+                        lastTaken[producer] = message;
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            }));
+        }
+
+        for (Thread th : ths) {
+            th.start();
+        }
+        for (Thread th : ths) {
+            th.join(30000);
+        }
+
+        assertFalse(error.get());
+        assertEquals(nOfProducers * nOfMessages, taken.get());
+        assertNull(transferQueue.take(0));
+    }
+}
@@ -0,0 +1,30 @@
+import org.junit.Test;
+import utils.TimerWheel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTests {
+
+    @Test
+    public void aTaskThatThrowsDoesNotStopTheTicker() throws InterruptedException {
+        TimerWheel timerWheel = new TimerWheel(10, 64);
+        CountDownLatch sameTick = new CountDownLatch(1);
+        CountDownLatch laterTick = new CountDownLatch(1);
+
+        try {
+            timerWheel.schedule(() -> {
+                throw new IllegalStateException("failing timer");
+            }, 50);
+            timerWheel.schedule(sameTick::countDown, 50);
+            timerWheel.schedule(laterTick::countDown, 200);
+
+            assertTrue(sameTick.await(5, TimeUnit.SECONDS));
+            assertTrue(laterTick.await(5, TimeUnit.SECONDS));
+        } finally {
+            timerWheel.stop();
+        }
+    }
+}
@@ -2,23 +2,49 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import synchronizers.TransferQueue;
+import utils.Journal;
 import utils.TestHelper;
 import utils.Timeouts;
+import utils.WaitStrategy;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TransferQueueTests {
 
     private static final Logger logger = LoggerFactory.getLogger(TransferQueueTests.class);
     private static final Duration TEST_DURATION = Duration.ofSeconds(60);
+    private static final Journal.Codec<String> codec = new Journal.Codec<String>() {
+        @Override
+        public byte[] encode(String message) {
+            return message.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
 
     private boolean executeFunctionAndCheckElapsed(BiFunction<Integer, Integer, Boolean> biFunc, long timeout,
                                                    int threadNo) {
@@ -169,6 +195,285 @@ public class TransferQueueTests {
         });
     }
 
+    @Test
+    public void batchOperationsMoveManyMessagesAndCompleteTheirTransfers() throws InterruptedException {
+        TransferQueue<Integer> transferQueue = new TransferQueue<>();
 
-}
+        transferQueue.putAll(Arrays.asList(1, 2, 3));
+        assertEquals(Arrays.asList(1, 2), transferQueue.takeBatch(2, 0));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(1, transferQueue.drainTo(drained, 10));
+        assertEquals(Collections.singletonList(3), drained);
+        assertTrue(transferQueue.takeBatch(10, 100).isEmpty());
+
+        // transfers waiting when a batch takes their messages are all completed
+        final AtomicBoolean error = new AtomicBoolean();
+        List<Thread> transferrers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final int message = i;
+            Thread th = new Thread(() -> {
+                try {
+                    if (!transferQueue.transfer(message, 5000)) {
+                        error.set(true);
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            th.start();
+            transferrers.add(th);
+        }
+        Thread.sleep(200);
+
+        assertEquals(3, transferQueue.takeBatch(10, 1000).size());
+        for (Thread th : transferrers) {
+            th.join(5000);
+        }
+        assertFalse(error.get());
+
+        // a waiting batch is woken by putAll
+        Thread putter = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+            transferQueue.putAll(Arrays.asList(4, 5));
+        });
+        putter.start();
+        assertEquals(Arrays.asList(4, 5), transferQueue.takeBatch(10, 5000));
+        putter.join();
+    }
+
+    @Test
+    public void transfersAreOnlyCompletedByTheTakeOfTheirOwnMessage() throws Exception {
+        TransferQueue<String> transferQueue = new TransferQueue<>();
+        AtomicBoolean isTransferred = new AtomicBoolean(false);
+
+        transferQueue.put("A");
+        Thread transferrer = new Thread(() -> {
+            try {
+                isTransferred.set(transferQueue.transfer("B", 5000));
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        transferrer.start();
+        Thread.sleep(100);
+        CompletableFuture<Boolean> asyncTransfer = transferQueue.transferAsync("C", 5000);
+        transferQueue.put("D");
+
+        // taking put's message doesn't complete the transfer waiting behind it
+        assertEquals("A", transferQueue.take(0));
+        Thread.sleep(100);
+        assertFalse(isTransferred.get());
+        assertFalse(asyncTransfer.isDone());
+
+        // nor does taking the synchronous transfer's message complete the asynchronous one
+        List<String> drained = new ArrayList<>();
+        assertEquals(1, transferQueue.drainTo(drained, 1));
+        assertEquals(List.of("B"), drained);
+        transferrer.join(5000);
+        assertTrue(isTransferred.get());
+        assertFalse(asyncTransfer.isDone());
+
+        assertEquals(List.of("C", "D"), transferQueue.takeBatch(2, 0));
+        assertTrue(asyncTransfer.get(5, TimeUnit.SECONDS));
+
+        // a transfer that timed out isn't completed when its message is taken later, nor is the one after it
+        assertFalse(transferQueue.transfer("E", 100));
+        CompletableFuture<Boolean> nextTransfer = transferQueue.transferAsync("F", 5000);
+        assertEquals("E", transferQueue.take(0));
+        assertFalse(nextTransfer.isDone());
+        assertEquals("F", transferQueue.take(0));
+        assertTrue(nextTransfer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void spinningQueuesHandOffEveryMessage() throws InterruptedException {
+        for (WaitStrategy waitStrategy : new WaitStrategy[] {WaitStrategy.adaptive(),
+                WaitStrategy.spinThenPark(1000, 2)}) {
+            TransferQueue<Integer> transferQueue = new TransferQueue<>(waitStrategy);
+            int nOfMessages = 5000;
+            final AtomicBoolean error = new AtomicBoolean();
+
+            Thread producer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < nOfMessages; i++) {
+                        if (i % 2 == 0) {
+                            transferQueue.put(i);
+                        } else if (!transferQueue.transfer(i, 5000)) {
+                            error.set(true);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    logger.info("interrupted, giving up");
+                }
+            });
+            producer.start();
+
+            for (int i = 0; i < nOfMessages; i++) {
+                assertEquals(Integer.valueOf(i), transferQueue.take(5000));
+            }
+            producer.join(5000);
+            assertFalse(error.get());
+        }
+    }
 
+    @Test
+    public void boundedQueueBlocksProducersAndCrossesWatermarks() throws InterruptedException {
+        TransferQueue<Integer> transferQueue = new TransferQueue<>(3);
+        AtomicInteger highs = new AtomicInteger(0);
+        AtomicInteger lows = new AtomicInteger(0);
+        transferQueue.setWatermarks(2, 0, highs::incrementAndGet, lows::incrementAndGet);
+
+        assertTrue(transferQueue.offer(1));
+        assertEquals(0, highs.get());
+        transferQueue.put(2);
+        assertEquals(1, highs.get());
+        assertTrue(transferQueue.put(3, 0));
+        assertFalse(transferQueue.offer(4));
+        try {
+            transferQueue.put(4);
+            fail("put should have failed on a full queue");
+        } catch (IllegalStateException e) {
+            logger.info("queue is full as expected");
+        }
+
+        long start = System.currentTimeMillis();
+        assertFalse(transferQueue.put(4, 100));
+        assertFalse(transferQueue.transfer(4, 100));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+
+        // a blocked producer gets in once a message is taken
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                transferQueue.take(0);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        consumer.start();
+        assertTrue(transferQueue.put(4, 5000));
+        consumer.join();
+
+        assertEquals(0, lows.get());
+        assertEquals(3, transferQueue.drainTo(new ArrayList<>(), 10));
+        assertEquals(1, lows.get());
+        assertEquals(1, highs.get());
+    }
+
+    @Test
+    public void journaledMessagesSurviveARestart() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("journal");
+        int nOfMessages = 100;
+
+        // small segments so that the journal rolls over many of them
+        Journal<String> journal = new Journal<>(directory, codec, 64, 10);
+        TransferQueue<String> transferQueue = new TransferQueue<>(Integer.MAX_VALUE, WaitStrategy.park(), journal);
+        for (int i = 0; i < nOfMessages; i++) {
+            transferQueue.put("message " + i);
+        }
+        assertFalse(transferQueue.transfer("message " + nOfMessages, 10));
+        for (int i = 0; i < 40; i++) {
+            assertEquals("message " + i, transferQueue.take(0));
+        }
+        journal.close();
+
+        journal = new Journal<>(directory, codec, 64, 0);
+        transferQueue = new TransferQueue<>(Integer.MAX_VALUE, WaitStrategy.park(), journal);
+        for (int i = 40; i <= nOfMessages; i++) {
+            assertEquals("message " + i, transferQueue.take(0));
+        }
+        assertEquals(null, transferQueue.take(0));
+        journal.close();
+
+        // everything was consumed, so nothing comes back and the consumed segments are gone
+        journal = new Journal<>(directory, codec, 64, 0);
+        assertTrue(journal.recover().isEmpty());
+        journal.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.count() <= 3);
+        }
+    }
+
+    @Test
+    public void emptyJournaledMessagesAreNotTakenForTheEndOfTheData() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("journal");
+
+        Journal<String> journal = new Journal<>(directory, codec, 64, 0);
+        TransferQueue<String> transferQueue = new TransferQueue<>(Integer.MAX_VALUE, WaitStrategy.park(), journal);
+        transferQueue.put("");
+        transferQueue.put("x");
+        transferQueue.put("");
+        transferQueue.put("y");
+        assertEquals("", transferQueue.take(0));
+        assertEquals("x", transferQueue.take(0));
+        journal.close();
+
+        journal = new Journal<>(directory, codec, 64, 0);
+        assertEquals(List.of("", "y"), journal.recover());
+        journal.close();
+    }
+
+    @Test
+    public void asyncTakesWaitWithoutThreadsAndCompleteOnceFulfilled() throws Exception {
+        TransferQueue<Integer> transferQueue = new TransferQueue<>();
+        int nOfTakes = 100000;
+
+        List<CompletableFuture<Integer>> takes = new ArrayList<>();
+        for (int i = 0; i < nOfTakes; i++) {
+            takes.add(transferQueue.takeAsync(30000));
+        }
+        assertFalse(takes.get(0).isDone());
+
+        List<Integer> messages = new ArrayList<>();
+        for (int i = 0; i < nOfTakes; i++) {
+            messages.add(i);
+        }
+        transferQueue.putAll(messages);
+
+        // each take got its own message, in order
+        for (int i = 0; i < nOfTakes; i++) {
+            assertEquals(Integer.valueOf(i), takes.get(i).getNow(null));
+        }
+
+        CompletableFuture<Boolean> transfer = transferQueue.transferAsync(1, 30000);
+        assertFalse(transfer.isDone());
+        assertEquals(Integer.valueOf(1), transferQueue.takeAsync(0).get());
+        assertTrue(transfer.getNow(false));
+    }
+
+    @Test
+    public void asyncRequestsTimeOutAndCanBeCancelled() throws Exception {
+        TransferQueue<Integer> transferQueue = new TransferQueue<>();
+
+        assertNull(transferQueue.takeAsync(100).get(5, TimeUnit.SECONDS));
+
+        // a transfer that times out leaves its message queued
+        assertFalse(transferQueue.transferAsync(1, 100).get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), transferQueue.take(0));
+
+        // a cancelled take doesn't get any message
+        CompletableFuture<Integer> cancelled = transferQueue.takeAsync(30000);
+        CompletableFuture<Integer> take = transferQueue.takeAsync(30000);
+        assertTrue(cancelled.cancel(true));
+        transferQueue.put(2);
+        assertEquals(Integer.valueOf(2), take.get(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+
+        // a blocked take is woken by an asynchronous transfer
+        Thread taker = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                transferQueue.take(5000);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        taker.start();
+        assertTrue(transferQueue.transferAsync(3, 5000).get(10, TimeUnit.SECONDS));
+        taker.join();
+    }
+}
@@ -0,0 +1,94 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import synchronizers.KeyedExchanger;
+import synchronizers.LongTransferQueue;
+import synchronizers.TransferQueue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeoutException;
+
+// not a test, run its main to see how many bytes a blocking call allocates once the threads are warmed up.
+// two threads play ping pong so that nearly every take and exchange has to wait for the other side
+public class WaiterAllocationBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(WaiterAllocationBenchmark.class);
+    private static final int WARM_UP_ROUNDS = 100000;
+    private static final int N_OF_ROUNDS = 100000;
+    private static final int TIMEOUT = 10000;
+    // always the same instance so that boxing doesn't show up in the numbers
+    private static final Integer PING = 1;
+
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Round {
+        void run() throws InterruptedException;
+    }
+
+    // returns the bytes the current thread allocated per round
+    private static double allocatedPerRound(Round round, Round pairRound) throws InterruptedException {
+        Thread pair = new Thread(() -> {
+            try {
+                for (int i = 0; i < WARM_UP_ROUNDS + N_OF_ROUNDS; i++) {
+                    pairRound.run();
+                }
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+        });
+        pair.start();
+
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            round.run();
+        }
+
+        long before = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < N_OF_ROUNDS; i++) {
+            round.run();
+        }
+        long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - before;
+
+        pair.join();
+        return (double) allocated / N_OF_ROUNDS;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TransferQueue<Integer> pings = new TransferQueue<>();
+        TransferQueue<Integer> pongs = new TransferQueue<>();
+        // the put allocates the node that holds the message in the queue, the take waits
+        double takes = allocatedPerRound(() -> {
+            pings.put(PING);
+            pongs.take(TIMEOUT);
+        }, () -> {
+            pongs.put(pings.take(TIMEOUT));
+        });
+        logger.info("put and blocking take: {} bytes per round", takes);
+
+        TransferQueue<Integer> transfers = new TransferQueue<>();
+        double transferred = allocatedPerRound(() -> transfers.transfer(PING, TIMEOUT),
+                () -> transfers.take(TIMEOUT));
+        logger.info("blocking transfer: {} bytes per round", transferred);
+
+        KeyedExchanger<Integer> keyedExchanger = new KeyedExchanger<>();
+        double exchanged = allocatedPerRound(() -> keyedExchanger.exchange(1, PING, TIMEOUT),
+                () -> keyedExchanger.exchange(1, PING, TIMEOUT));
+        logger.info("exchange: {} bytes per round", exchanged);
+
+        // sequence numbers, too big for the Long cache
+        long[] sequence = {Integer.MAX_VALUE};
+        TransferQueue<Long> boxedTransfers = new TransferQueue<>();
+        double boxed = allocatedPerRound(() -> boxedTransfers.transfer(sequence[0]++, TIMEOUT),
+                () -> boxedTransfers.take(TIMEOUT));
+        logger.info("transfer of boxed longs: {} bytes per round", boxed);
+
+        LongTransferQueue longTransfers = new LongTransferQueue();
+        double primitive = allocatedPerRound(() -> longTransfers.transfer(sequence[0]++, TIMEOUT), () -> {
+            try {
+                longTransfers.take(TIMEOUT);
+            } catch (TimeoutException e) {
+                logger.info("timed out");
+            }
+        });
+        logger.info("transfer of primitive longs: {} bytes per round", primitive);
+    }
+}
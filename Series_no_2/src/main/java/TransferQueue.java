@@ -1,10 +1,16 @@
 import utils.LockFreeQueue;
 import utils.Timeouts;
+import utils.WaitStrategy;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 public class TransferQueue<E> {
 
@@ -12,9 +18,82 @@ public class TransferQueue<E> {
     private AtomicInteger waitingThreadsCounter = new AtomicInteger(0);
     private final ReentrantLock monitor = new ReentrantLock();
     private final Condition condition = monitor.newCondition();
+    private final WaitStrategy waitStrategy;
+    private final BooleanSupplier hasMessages = () -> dataQueue.isNotEmpty();
+    // messages are counted when room for them is reserved, before they are enqueued, and until they are dequeued
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final int capacity;
+    private final AtomicInteger waitingPuttersCounter = new AtomicInteger(0);
+    private final Condition notFull = monitor.newCondition();
+    private final AtomicBoolean isAboveHighWatermark = new AtomicBoolean(false);
+    private volatile int highWatermark = Integer.MAX_VALUE;
+    private volatile int lowWatermark = 0;
+    private volatile Runnable onHighWatermark;
+    private volatile Runnable onLowWatermark;
 
-    // deliver messages to the end of the queue so that we can have a FIFO order
+    public TransferQueue() {
+        this(Integer.MAX_VALUE, WaitStrategy.park());
+    }
+
+    public TransferQueue(WaitStrategy waitStrategy) {
+        this(Integer.MAX_VALUE, waitStrategy);
+    }
+
+    public TransferQueue(int capacity) {
+        this(capacity, WaitStrategy.park());
+    }
+
+    public TransferQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+    }
+
+    // onHighWatermark runs when the number of messages reaches highWatermark and onLowWatermark when it then drops
+    // to lowWatermark, so that producers can be throttled before the queue is full. they run on the thread that
+    // crossed the watermark
+    public void setWatermarks(int highWatermark, int lowWatermark, Runnable onHighWatermark,
+                              Runnable onLowWatermark) {
+        if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("low watermark must be between 0 and the high watermark");
+        }
+        this.onHighWatermark = onHighWatermark;
+        this.onLowWatermark = onLowWatermark;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    // throws IllegalStateException if the queue is full
     public void put(E message) {
+        if (!offer(message)) {
+            throw new IllegalStateException("queue is full");
+        }
+    }
+
+    // returns false if the queue is full
+    public boolean offer(E message) {
+        if (!reserve(1)) {
+            return false;
+        }
+
+        enqueue(message);
+        return true;
+    }
+
+    // waits for room in the queue, returns false if there was none before the timeout or if interrupted
+    public boolean put(E message, long timeout) {
+        if (!reserve(1) && !awaitRoom(timeout)) {
+            return false;
+        }
+
+        enqueue(message);
+        return true;
+    }
+
+    // deliver messages to the end of the queue so that we can have a FIFO order
+    private void enqueue(E message) {
 
         // no threads incremented the counter so there are no threads waiting
         // simply enqueue the message and return
@@ -34,11 +113,73 @@ public class TransferQueue<E> {
         }
     }
 
+    // enqueues every message and then wakes up to one waiting thread per message under a single acquisition.
+    // throws IllegalStateException, without enqueueing any of them, if there isn't room for all of them
+    public void putAll(Collection<? extends E> messages) {
+        if (!reserve(messages.size())) {
+            throw new IllegalStateException("not enough room in the queue");
+        }
+
+        for (E message : messages) {
+            dataQueue.enqueue(message);
+        }
+
+        if (waitingThreadsCounter.get() != 0) {
+            try {
+                monitor.lock();
+                for (int i = 0; i < messages.size(); i++) {
+                    condition.signal();
+                }
+
+            } finally {
+                monitor.unlock();
+            }
+        }
+    }
+
+    // takes up to max messages without waiting, returns how many it took
+    public int drainTo(Collection<? super E> messages, int max) {
+        int taken = 0;
+
+        while (taken < max) {
+            E message = dequeue();
+            if (message == null) {
+                break;
+            }
+            messages.add(message);
+            taken++;
+        }
+        return taken;
+    }
+
+    // waits like take for the first message and then takes up to max messages,
+    // returns an empty list if no message arrived before the timeout
+    public List<E> takeBatch(int max, long timeout) {
+        List<E> batch = new ArrayList<>();
+
+        E first = take(timeout);
+        if (first != null) {
+            batch.add(first);
+            drainTo(batch, max - 1);
+        }
+        return batch;
+    }
+
     public E take(long timeout) {
 
         // happy path
         if (dataQueue.isNotEmpty()) {
-            return dataQueue.dequeue();
+            return dequeue();
+        }
+
+        // the producer usually shows up within microseconds, wait for it without leaving the processor
+        if (!waitStrategy.isParkOnly() && !Timeouts.noWait(timeout)
+                && waitStrategy.await(hasMessages, Timeouts.start(timeout))) {
+            E message = dequeue();
+            // another take may have got to it first
+            if (message != null) {
+                return message;
+            }
         }
 
         try {
@@ -70,7 +211,7 @@ public class TransferQueue<E> {
                 }
                 if (dataQueue.isNotEmpty()) {
                     waitingThreadsCounter.decrementAndGet();
-                    return dataQueue.dequeue();
+                    return dequeue();
                 }
 
                 // check if timeout has ended
@@ -85,4 +226,97 @@ public class TransferQueue<E> {
             monitor.unlock();
         }
     }
-}
\ No newline at end of file
+
+    private E dequeue() {
+        E message = dataQueue.dequeue();
+        if (message != null) {
+            release();
+        }
+        return message;
+    }
+
+    private boolean reserve(int nOfMessages) {
+        while (true) {
+            int observedSize = size.get();
+            if (nOfMessages > capacity - observedSize) {
+                return false;
+            }
+
+            if (size.compareAndSet(observedSize, observedSize + nOfMessages)) {
+                if (observedSize + nOfMessages >= highWatermark && isAboveHighWatermark.compareAndSet(false, true)) {
+                    Runnable observedOnHighWatermark = onHighWatermark;
+                    if (observedOnHighWatermark != null) {
+                        observedOnHighWatermark.run();
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        int observedSize = size.decrementAndGet();
+
+        if (observedSize <= lowWatermark && isAboveHighWatermark.compareAndSet(true, false)) {
+            Runnable observedOnLowWatermark = onLowWatermark;
+            if (observedOnLowWatermark != null) {
+                observedOnLowWatermark.run();
+            }
+        }
+
+        // size is written before reading the counter and putters increment the counter before reading size,
+        // so either they see the room or we see them
+        if (waitingPuttersCounter.get() != 0) {
+            try {
+                monitor.lock();
+                notFull.signal();
+
+            } finally {
+                monitor.unlock();
+            }
+        }
+    }
+
+    private boolean awaitRoom(long timeout) {
+
+        // check if it's supposed to wait
+        if (Timeouts.noWait(timeout)) {
+            return false;
+        }
+
+        try {
+            monitor.lock();
+            waitingPuttersCounter.incrementAndGet();
+
+            // prepare wait
+            long limit = Timeouts.start(timeout);
+            long remaining = Timeouts.remaining(limit);
+
+            while (true) {
+                if (reserve(1)) {
+                    return true;
+                }
+
+                // check if timeout has ended
+                if (Timeouts.isTimeout(remaining)) {
+                    return false;
+                }
+
+                try {
+                    notFull.await(remaining, TimeUnit.MILLISECONDS);
+
+                } catch (InterruptedException e) {
+                    // give up, let someone else have the room we may have been signalled for
+                    notFull.signal();
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+
+                remaining = Timeouts.remaining(limit);
+            }
+        } finally {
+            waitingPuttersCounter.decrementAndGet();
+            monitor.unlock();
+        }
+    }
+}
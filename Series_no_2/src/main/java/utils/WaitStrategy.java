@@ -0,0 +1,103 @@
+package utils;
+
+import java.util.function.BooleanSupplier;
+
+// How a thread waits for a condition that another thread is usually about to make true, before falling back to
+// parking on a condition variable. spinning avoids the park/unpark round trip and the context switch when the
+// other side arrives within microseconds, yielding gives it the processor when it's runnable but not running.
+// the adaptive strategy tunes its spin budget from how long recent successful spins took and shrinks it when
+// spinning stops paying off.
+// this is a deliberate copy of Serie_no_1's utils.WaitStrategy, the two series are separate builds with no module
+// in common and this one targets java 8, where Thread.onSpinWait doesn't exist, so here spinning is a plain busy
+// loop. a change to the tuning of one belongs in the other as well
+public class WaitStrategy {
+
+    private static final boolean IS_MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+    private static final int MIN_SPINS = 16;
+    private static final int MAX_SPINS = 1 << 14;
+    private static final int YIELDS = 4;
+
+    private final boolean isAdaptive;
+    private final int yields;
+    // only a hint shared by every waiter of the same queue, races between them just blur the estimate
+    private volatile int spins;
+    // exponentially weighted average of the spins that successful waits needed
+    private volatile int averageSpins;
+
+    private WaitStrategy(int spins, int yields, boolean isAdaptive) {
+        // spinning on a single processor only delays the thread we are waiting for
+        this.spins = IS_MULTIPROCESSOR ? spins : 0;
+        this.averageSpins = spins / 2;
+        this.yields = yields;
+        this.isAdaptive = isAdaptive;
+    }
+
+    // goes straight to parking
+    public static WaitStrategy park() {
+        return new WaitStrategy(0, 0, false);
+    }
+
+    public static WaitStrategy spinThenPark(int spins, int yields) {
+        return new WaitStrategy(spins, yields, false);
+    }
+
+    public static WaitStrategy adaptive() {
+        return new WaitStrategy(MIN_SPINS * 4, YIELDS, true);
+    }
+
+    public boolean isParkOnly() {
+        return !isAdaptive && spins == 0 && yields == 0;
+    }
+
+    // spins and then yields until the condition holds, the budget runs out or the deadline is reached.
+    // returns whether the condition holds, if not the caller should park
+    public boolean await(BooleanSupplier condition, long limit) {
+        int budget = spins;
+
+        for (int i = 0; i < budget; i++) {
+            if (condition.getAsBoolean()) {
+                onSuccess(i);
+                return true;
+            }
+        }
+
+        for (int i = 0; i < yields; i++) {
+            if (condition.getAsBoolean()) {
+                // the other side needed more than the spin budget
+                onSuccess(budget * 2);
+                return true;
+            }
+            if (Timeouts.isTimeout(Timeouts.remaining(limit))) {
+                break;
+            }
+            Thread.yield();
+        }
+
+        if (condition.getAsBoolean()) {
+            onSuccess(budget * 2);
+            return true;
+        }
+
+        onFailure();
+        return false;
+    }
+
+    private void onSuccess(int spinsNeeded) {
+        if (!isAdaptive || !IS_MULTIPROCESSOR) {
+            return;
+        }
+        int average = (averageSpins * 7 + spinsNeeded) / 8;
+        averageSpins = average;
+        // leave room for the waits that take a bit longer than the average
+        spins = Math.max(MIN_SPINS, Math.min(MAX_SPINS, average * 2));
+    }
+
+    private void onFailure() {
+        if (!isAdaptive || !IS_MULTIPROCESSOR) {
+            return;
+        }
+        // the other side is slow at the moment, stop burning cycles on it
+        averageSpins = averageSpins / 2;
+        spins = Math.max(MIN_SPINS, spins / 2);
+    }
+}
@@ -2,8 +2,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.Timeouts;
+import utils.WaitStrategy;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -12,7 +14,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class TestTransferQueue {
 
@@ -142,4 +146,90 @@ public class TestTransferQueue {
                 }, nOfThreads[0],
                 integer -> integer % 2 != 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void batchOperationsMoveManyMessages() throws InterruptedException {
+        TransferQueue<Integer> tq = new TransferQueue<>();
+
+        tq.putAll(Arrays.asList(1, 2, 3));
+        assertEquals(Arrays.asList(1, 2), tq.takeBatch(2, 0));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(1, tq.drainTo(drained, 10));
+        assertEquals(Arrays.asList(3), drained);
+        assertTrue(tq.takeBatch(10, 100).isEmpty());
+
+        // a waiting batch is woken by putAll
+        Thread th = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+            tq.putAll(Arrays.asList(4, 5));
+        });
+        th.start();
+        assertEquals(Arrays.asList(4, 5), tq.takeBatch(10, 5000));
+        th.join();
+    }
+
+    @Test
+    public void spinningQueuesDeliverEveryMessage() throws InterruptedException {
+        for (WaitStrategy waitStrategy : new WaitStrategy[] {WaitStrategy.adaptive(),
+                WaitStrategy.spinThenPark(1000, 2)}) {
+            TransferQueue<Integer> tq = new TransferQueue<>(waitStrategy);
+            int nOfMessages = 5000;
+
+            Thread th = new Thread(() -> {
+                for (int i = 0; i < nOfMessages; i++) {
+                    tq.put(i);
+                    if (i % 100 == 0) {
+                        Thread.yield();
+                    }
+                }
+            });
+            th.start();
+
+            for (int i = 0; i < nOfMessages; i++) {
+                assertEquals(Integer.valueOf(i), tq.take(5000));
+            }
+            th.join(5000);
+        }
+    }
+
+    @Test
+    public void boundedQueueBlocksProducersAndCrossesWatermarks() throws InterruptedException {
+        TransferQueue<Integer> tq = new TransferQueue<>(3);
+        AtomicInteger highs = new AtomicInteger(0);
+        AtomicInteger lows = new AtomicInteger(0);
+        tq.setWatermarks(2, 0, highs::incrementAndGet, lows::incrementAndGet);
+
+        assertTrue(tq.offer(1));
+        assertEquals(0, highs.get());
+        tq.put(2);
+        assertEquals(1, highs.get());
+        assertTrue(tq.put(3, 0));
+        assertFalse(tq.offer(4));
+
+        long start = System.currentTimeMillis();
+        assertFalse(tq.put(4, 100));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+
+        // a blocked producer gets in once a message is taken
+        Thread th = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                logger.info("interrupted, giving up");
+            }
+            tq.take(0);
+        });
+        th.start();
+        assertTrue(tq.put(4, 5000));
+        th.join();
+
+        assertEquals(0, lows.get());
+        assertEquals(3, tq.drainTo(new ArrayList<>(), 10));
+        assertEquals(1, lows.get());
+        assertEquals(1, highs.get());
+    }
+}